@@ -0,0 +1,171 @@
+package com.example.liefantidia2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 数千件の履歴を索引に登録した状態で、全文検索（searchHistory）の結果と所要時間、索引の容量を端末上で確認する。
+ * アプリの履歴とは別のデータベースファイルを使う。
+ */
+@RunWith(AndroidJUnit4.class)
+public class HistoryDatabaseSearchTest {
+
+    private static final String TAG = "HistoryDatabaseSearchTest";
+    private static final String DATABASE_NAME = "recipe_history_search_test.db";
+    private static final String OWNER = "artifacts/default-app-id/users/test-user/recipe_history";
+    private static final String OTHER_OWNER = "artifacts/default-app-id/users/other-user/recipe_history";
+
+    private static final int ENTRY_COUNT = 3000;
+    private static final int SEARCH_LIMIT = 50;
+    private static final int SEARCH_RUNS = 20;
+    // 端末の速度の差を見込んだ上限。索引を引かずに全件を走査するようになると大きく超える
+    private static final long MAX_AVERAGE_SEARCH_MILLIS = 200;
+    // 履歴1件あたりのファイルサイズ（履歴の行と索引の合計）の上限。owner とIDを索引の行ごとに持っていた形式では約50KB
+    private static final long MAX_BYTES_PER_ENTRY = 16 * 1024;
+
+    private static final String[] DISHES = {
+            "親子丼", "肉じゃが", "麻婆豆腐", "鶏の照り焼き", "豚の生姜焼き",
+            "オムライス", "カレーライス", "ハンバーグ", "八宝菜", "ミネストローネ"
+    };
+    private static final String[] INGREDIENTS = {
+            "鶏もも肉", "玉ねぎ", "卵", "長ねぎ", "しょうゆ", "みりん", "豚ロース",
+            "にんじん", "じゃがいも", "豆腐", "トマト", "キャベツ", "しょうが", "にんにく"
+    };
+    private static final String[] STEPS = {
+            "鶏もも肉は一口大に切り、玉ねぎは薄切り、長ねぎは斜め切りにする。",
+            "フライパンにだし汁、しょうゆ、みりんを入れて中火にかけ、玉ねぎを加えて3分ほど煮る。",
+            "鶏もも肉を加えて、ふたをして弱めの中火で5〜6分煮る。",
+            "溶き卵を回し入れて火を止め、ふたをして余熱で半熟に仕上げる。",
+            "器にご飯を盛り、具を煮汁ごとのせて完成です。",
+            "野菜は食べやすい大きさに切り、下ゆでしておく。",
+            "調味料を合わせ、強火で手早く炒め合わせる。"
+    };
+    private static final String CONSTRAINTS = "主食: ご飯類, ジャンル: 和食, 価格帯: 300円〜800円";
+
+    private Context context;
+    private HistoryDatabase database;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(DATABASE_NAME);
+        database = new HistoryDatabase(context, DATABASE_NAME);
+
+        List<RecipeHistory> histories = new ArrayList<>(ENTRY_COUNT);
+        for (int i = 0; i < ENTRY_COUNT; i++) {
+            histories.add(newHistory(i));
+        }
+        database.upsertFromRemote(OWNER, histories, HistoryDatabase.STATE_SYNCED);
+        // 別のユーザーの履歴は検索結果に含まれない
+        List<RecipeHistory> others = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            RecipeHistory history = newHistory(i);
+            history.setId("other-" + i);
+            others.add(history);
+        }
+        database.upsertFromRemote(OTHER_OWNER, others, HistoryDatabase.STATE_SYNCED);
+    }
+
+    @After
+    public void tearDown() {
+        database.close();
+        context.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void search_returnsOnlyEntriesOfOwnerContainingAllTerms() {
+        List<RecipeHistory> results = database.searchHistory(OWNER, "親子丼", SEARCH_LIMIT);
+
+        assertEquals(SEARCH_LIMIT, results.size());
+        for (RecipeHistory history : results) {
+            assertTrue(history.getRecipeTitle(), history.getRecipeTitle().contains("親子丼"));
+            assertFalse(history.getId(), history.getId().startsWith("other-"));
+        }
+    }
+
+    @Test
+    public void search_excludesDeletedAndPurgedEntries() {
+        List<RecipeHistory> before = database.searchHistory(OWNER, "ハンバーグ", ENTRY_COUNT);
+        String deletedId = before.get(0).getId();
+        String purgedId = before.get(1).getId();
+
+        database.markDeleted(OWNER, deletedId);
+        List<String> purged = new ArrayList<>();
+        purged.add(purgedId);
+        database.purgeSynced(OWNER, purged);
+
+        List<RecipeHistory> after = database.searchHistory(OWNER, "ハンバーグ", ENTRY_COUNT);
+        assertEquals(before.size() - 2, after.size());
+        for (RecipeHistory history : after) {
+            assertFalse(deletedId.equals(history.getId()) || purgedId.equals(history.getId()));
+        }
+    }
+
+    @Test
+    public void search_overThousandsOfEntries_staysWithinBudget() {
+        String[] queries = {"鶏もも肉 親子丼", "卵", "じゃがいも にんじん", "半熟", "ミネストローネ トマト"};
+        // 初回はページの読み込みを含むため計測から除く
+        for (String query : queries) {
+            database.searchHistory(OWNER, query, SEARCH_LIMIT);
+        }
+
+        long start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < SEARCH_RUNS; i++) {
+            assertFalse(database.searchHistory(OWNER, queries[i % queries.length], SEARCH_LIMIT).isEmpty());
+        }
+        long averageMillis = (SystemClock.elapsedRealtime() - start) / SEARCH_RUNS;
+
+        SQLiteDatabase db = database.getReadableDatabase();
+        long bytes = DatabaseUtils.longForQuery(db, "PRAGMA page_count", null)
+                * DatabaseUtils.longForQuery(db, "PRAGMA page_size", null);
+        long bytesPerEntry = bytes / (ENTRY_COUNT + 100);
+        Log.i(TAG, "searchHistory over " + ENTRY_COUNT + " entries: " + averageMillis + " ms average, "
+                + bytesPerEntry + " bytes per entry");
+
+        assertTrue("average search took " + averageMillis + " ms", averageMillis <= MAX_AVERAGE_SEARCH_MILLIS);
+        assertTrue("database uses " + bytesPerEntry + " bytes per entry", bytesPerEntry <= MAX_BYTES_PER_ENTRY);
+    }
+
+    /**
+     * 料理名・材料・手順を i ごとにずらした、本文（JSON）付きの履歴
+     */
+    private static RecipeHistory newHistory(int i) {
+        String dish = DISHES[i % DISHES.length];
+        StringBuilder ingredients = new StringBuilder();
+        StringBuilder content = new StringBuilder("{\"title\":\"").append(dish).append("\",\"minutes\":20,\"ingredients\":[");
+        for (int j = 0; j < 6; j++) {
+            String name = INGREDIENTS[(i + j * 3) % INGREDIENTS.length];
+            ingredients.append(j == 0 ? "" : "、").append(name);
+            content.append(j == 0 ? "" : ",").append("{\"name\":\"").append(name).append("\",\"amount\":\"適量\"}");
+        }
+        content.append("],\"steps\":[");
+        for (int j = 0; j < 5; j++) {
+            content.append(j == 0 ? "" : ",").append('"').append(STEPS[(i + j) % STEPS.length]).append('"');
+        }
+        content.append("]}");
+
+        String title = dish + "（" + INGREDIENTS[i % INGREDIENTS.length] + "使用）";
+        RecipeHistory history = new RecipeHistory("history-" + i, title, ingredients.toString(), CONSTRAINTS,
+                content.toString(), 1_700_000_000_000L + i * 60_000L);
+        history.setSummary(HistorySummary.build(ingredients.toString(), CONSTRAINTS));
+        return history;
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.liefantidia2;
+
+import java.text.Normalizer;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 履歴の全文検索用に、文字列を文字バイグラム（隣り合う2文字）に分割するトークナイザー。
+ *
+ * 日本語は単語の区切りに空白を使わないため、形態素解析の代わりにバイグラムで索引を作ります。
+ * 「鶏むね肉」は「鶏む」「むね」「ね肉」となり、検索語も同じ規則で分割して全て含む履歴を探します。
+ * 1文字の検索語（「卵」など）にも索引だけで答えられるよう、索引側には各文字（ユニグラム）も含めます。
+ * 全角・半角やカタカナの表記ゆれは NFKC 正規化と小文字化で吸収します。
+ */
+final class BigramTokenizer {
+
+    private BigramTokenizer() {
+        // インスタンス化しない
+    }
+
+    /**
+     * 索引用に分割し、各トークン（バイグラムと各文字）の出現回数を返す。
+     */
+    static Map<String, Integer> countTokens(String text) {
+        return tokenize(text, true);
+    }
+
+    /**
+     * 検索語を分割する（重複は除き、出現順を保つ）。2文字以上の語はバイグラムのみ、1文字の語はその文字にする。
+     */
+    static Set<String> queryTokens(String query) {
+        return new LinkedHashSet<>(tokenize(query, false).keySet());
+    }
+
+    private static Map<String, Integer> tokenize(String text, boolean withUnigrams) {
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        if (text == null || text.isEmpty()) {
+            return counts;
+        }
+        String normalized = normalize(text);
+        int length = normalized.length();
+        int runStart = -1;
+        for (int i = 0; i <= length; i++) {
+            boolean inRun = i < length && isTokenChar(normalized.charAt(i));
+            if (inRun && runStart < 0) {
+                runStart = i;
+            } else if (!inRun && runStart >= 0) {
+                addRun(normalized, runStart, i, withUnigrams, counts);
+                runStart = -1;
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * 全角英数字を半角に、半角カナを全角にそろえ、小文字化する。
+     */
+    static String normalize(String text) {
+        return Normalizer.normalize(text, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+    }
+
+    private static void addRun(String text, int start, int end, boolean withUnigrams, Map<String, Integer> counts) {
+        if (withUnigrams || end - start == 1) {
+            for (int i = start; i < end; i++) {
+                counts.merge(text.substring(i, i + 1), 1, Integer::sum);
+            }
+        }
+        for (int i = start; i + 1 < end; i++) {
+            counts.merge(text.substring(i, i + 2), 1, Integer::sum);
+        }
+    }
+
+    /**
+     * 記号・空白・改行は区切りとして扱う（Markdown の # や * も索引しない）。
+     */
+    private static boolean isTokenChar(char c) {
+        return Character.isLetterOrDigit(c) || c == 'ー' || c == '々';
+    }
+}
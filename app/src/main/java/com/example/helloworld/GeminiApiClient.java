@@ -1,167 +1,657 @@
 package com.example.liefantidia2;
 
+import android.content.Context;
 import android.util.Log;
+import androidx.annotation.VisibleForTesting;
 import okhttp3.Call;
 import okhttp3.Callback;
-import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSource;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class GeminiApiClient {
 
     private static final String TAG = "GeminiApiClient";
-    private static final String API_URL_BASE = "https://generativelanguage.googleapis.com/v1beta/models/gemini-2.5-flash:generateContent?key=";
-    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+    private static final String MODEL_NAME = "gemini-2.5-flash";
+    private static final String API_HOST_URL = "https://generativelanguage.googleapis.com/";
+    // 接続先ホストからのパス（ホストはテスト時にローカルのモックサーバーへ差し替えられる）
+    private static final String API_MODEL_PATH = "v1beta/models/" + MODEL_NAME;
+    // 一括生成用と、SSEでチャンクを逐次受け取るストリーミング用のエンドポイント
+    private static final String GENERATE_PATH = ":generateContent?key=";
+    private static final String STREAM_GENERATE_PATH = ":streamGenerateContent?alt=sse&key=";
+    private static final String SSE_DATA_PREFIX = "data:";
+    private static final String EMPTY_RESPONSE_MESSAGE = "AIからのレスポンスが空でした。";
+    private static final String INVALID_RESPONSE_MESSAGE = "AIからのレスポンスをレシピとして読み取れませんでした。";
+    private static final double TEMPERATURE = 0.9;
+
+    // レシピを Recipe の JSON 形式で返させるためのスキーマ（タイトルから順に生成させ、ストリーミング中も先頭から表示できるようにする）
+    private static final String RESPONSE_SCHEMA_JSON = "{\"type\":\"OBJECT\",\"properties\":{"
+            + "\"title\":{\"type\":\"STRING\"},"
+            + "\"minutes\":{\"type\":\"INTEGER\"},"
+            + "\"ingredients\":{\"type\":\"ARRAY\",\"items\":{\"type\":\"OBJECT\",\"properties\":{"
+            + "\"name\":{\"type\":\"STRING\"},\"amount\":{\"type\":\"STRING\"}},"
+            + "\"required\":[\"name\",\"amount\"],\"propertyOrdering\":[\"name\",\"amount\"]}},"
+            + "\"steps\":{\"type\":\"ARRAY\",\"items\":{\"type\":\"STRING\"}}},"
+            + "\"required\":[\"title\",\"minutes\",\"ingredients\",\"steps\"],"
+            + "\"propertyOrdering\":[\"title\",\"minutes\",\"ingredients\",\"steps\"]}";
+
+    // 1回のリクエストで生成できる候補数の上限（Gemini API の candidateCount の上限は8）
+    public static final int MAX_VARIANTS = 8;
+    // キャッシュに複数案をまとめて保存する際の区切り（レシピ本文には現れない制御文字）
+    private static final String VARIANT_SEPARATOR = "\n\u001E\n";
+    private static final String CACHE_DIR_NAME = "recipe_cache";
+    private static final String RETRY_INFO_TYPE = "google.rpc.RetryInfo";
+
+    // この値以上の本文は gzip 圧縮して送信する。自由指示は RecipePrompt.INSTRUCTION_TOKEN_BUDGET で切り詰めるため
+    // 本文は概ね 1.2〜2.5KB に収まり、自由指示の無い最小の本文（約1.2KB、圧縮後は約0.7KB）も対象になる値にする
+    public static final int DEFAULT_COMPRESSION_THRESHOLD_BYTES = 1024;
+
+    private static volatile GeminiApiClient sharedInstance;
 
     private final OkHttpClient client;
+    private final RecipeCache cache;
+    private final String apiHostUrl;
+    private final String apiUrlBase;
+
+    // 実行中のリクエスト（同一キーの重複リクエストを1回の通信にまとめる）
+    private final ConcurrentHashMap<String, InFlightGeneration> inFlight = new ConcurrentHashMap<>();
 
-    public GeminiApiClient() {
-        // タイムアウト値を設定
-        client = new OkHttpClient.Builder()
-                .connectTimeout(30, TimeUnit.SECONDS)
-                .readTimeout(60, TimeUnit.SECONDS) // レシピ生成は時間がかかる場合があるのでリードタイムアウトを長く
-                .writeTimeout(30, TimeUnit.SECONDS)
-                .build();
+    // 429 / 5xx の再試行
+    private final RetryPolicy retryPolicy;
+    private final GenerationMetrics metrics;
+    private final ScheduledExecutorService retryScheduler = Executors.newSingleThreadScheduledExecutor();
+
+    // リクエスト本文の gzip 圧縮。サーバーに拒否された場合はセッション中は無効化する
+    private volatile int compressionThresholdBytes = DEFAULT_COMPRESSION_THRESHOLD_BYTES;
+    private final AtomicBoolean compressionDisabled = new AtomicBoolean(false);
+
+    /**
+     * アプリケーションスコープで共有するインスタンスを取得する。
+     * Activity の再生成をまたいでキャッシュ・実行中リクエスト・接続を引き継ぐ。
+     */
+    public static GeminiApiClient getInstance(Context context) {
+        GeminiApiClient instance = sharedInstance;
+        if (instance == null) {
+            synchronized (GeminiApiClient.class) {
+                instance = sharedInstance;
+                if (instance == null) {
+                    instance = new GeminiApiClient(context.getApplicationContext());
+                    sharedInstance = instance;
+                }
+            }
+        }
+        return instance;
+    }
+
+    public GeminiApiClient(Context context) {
+        this(context, RetryPolicy.defaultPolicy());
+    }
+
+    public GeminiApiClient(Context context, RetryPolicy retryPolicy) {
+        // 同一条件のリクエスト結果を再利用するキャッシュ（ディスク層はアプリのキャッシュディレクトリ）と、
+        // プロセス共有のクライアント（コネクションプールを使い回す）で、Gemini API に接続する
+        this(new File(context.getCacheDir(), CACHE_DIR_NAME), retryPolicy, HttpClientProvider.get(), API_HOST_URL);
+    }
+
+    /**
+     * 接続先とクライアントを指定して作成する（MockWebServer を使ったオフラインの負荷試験用）
+     *
+     * @param cacheDir キャッシュのディスク層の保存先
+     * @param apiHostUrl 接続先のホストURL（末尾は "/"）。例: mockWebServer.url("/").toString()
+     */
+    @VisibleForTesting
+    GeminiApiClient(File cacheDir, RetryPolicy retryPolicy, OkHttpClient client, String apiHostUrl) {
+        this.retryPolicy = retryPolicy;
+        this.metrics = new GenerationMetrics(retryPolicy.getMaxAttempts());
+        this.cache = new RecipeCache(cacheDir);
+        this.client = client;
+        this.apiHostUrl = apiHostUrl;
+        this.apiUrlBase = apiHostUrl + API_MODEL_PATH;
+    }
+
+    /**
+     * 再試行の待機用スレッドとキャッシュのディスクI/O用スレッドを終了する（テストで作成したインスタンス用）。
+     * 共有インスタンス（getInstance）はプロセスと同じ期間使い続けるため呼ばないこと。
+     */
+    @VisibleForTesting
+    void shutdown() {
+        retryScheduler.shutdownNow();
+        cache.shutdown();
+    }
+
+    /**
+     * Gemini API ホストへの接続を事前に確立しておく（初回のレシピ生成でTLSハンドシェイクを待たないため）。
+     */
+    public void prewarmConnection() {
+        HttpClientProvider.prewarm(apiHostUrl);
+    }
+
+    public GenerationMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * gzip 圧縮を行う本文サイズの閾値を設定する。0以下を指定すると圧縮しない。
+     */
+    public void setCompressionThresholdBytes(int thresholdBytes) {
+        this.compressionThresholdBytes = thresholdBytes;
+    }
+
+    /**
+     * サーバーが gzip を受け付けなかったため、このセッションでは圧縮を行わない状態か
+     */
+    public boolean isCompressionDisabled() {
+        return compressionDisabled.get();
     }
 
     public interface RecipeCallback {
+        /**
+         * @param result レシピの JSON（{@link Recipe#fromJson} で解析できる）。
+         *               レシピとして読み取れなかった場合はメッセージ文字列
+         */
         void onResult(String result);
         void onComplete();
         void onFailure(String error);
+
+        /**
+         * ストリーミング生成時、チャンクを受信するたびに差分テキスト（JSON の断片）を通知する。
+         * 受信済みの全体は {@link Recipe#parsePartial} で途中まで解析できる。
+         * onResult には最後に組み立て済みの全文が渡される。
+         */
+        default void onPartial(CharSequence delta) {
+            // 一括生成では呼ばれない
+        }
+
+        /**
+         * 結果をキャッシュから返す場合に、onPartial / onResult より前に1回だけ呼ばれる。
+         * 以前に生成済みの結果のため、履歴などへの保存は不要。
+         */
+        default void onCacheHit() {
+            // 新規に生成した場合は呼ばれない
+        }
+
+        /**
+         * 複数案の生成（generateRecipeVariants）時に、全ての案を生成順で通知する。
+         * onResult には先頭の案が渡される。
+         */
+        default void onVariants(List<String> variants) {
+            // 1案のみの生成では呼ばれない
+        }
+    }
+
+    public GenerationHandle generateRecipe(String apiKey, String ingredientsWithUsage, String allConstraints, RecipeCallback callback) {
+        return generateRecipe(apiKey, ingredientsWithUsage, allConstraints, false, callback);
     }
 
-    public void generateRecipe(String apiKey, String ingredientsWithUsage, String allConstraints, RecipeCallback callback) {
-        String prompt = buildRecipePrompt(ingredientsWithUsage, allConstraints);
-        String url = API_URL_BASE + apiKey;
+    /**
+     * @param bypassCache true の場合はキャッシュを参照せずに再生成する（結果はキャッシュを上書き）
+     * @return キャンセル用のハンドル
+     */
+    public GenerationHandle generateRecipe(String apiKey, String ingredientsWithUsage, String allConstraints, boolean bypassCache, RecipeCallback callback) {
+        return startGeneration(apiKey, ingredientsWithUsage, allConstraints, bypassCache, GenerationSpec.SINGLE, callback);
+    }
 
-        try {
-            String jsonBody = buildJsonBody(prompt);
-
-            RequestBody body = RequestBody.create(jsonBody, JSON);
-            Request request = new Request.Builder()
-                    .url(url)
-                    .post(body)
-                    .build();
-
-            client.newCall(request).enqueue(new Callback() {
-                @Override
-                public void onFailure(Call call, IOException e) {
-                    Log.e(TAG, "API call failed: " + e.getMessage());
-                    callback.onFailure("ネットワークエラー: " + e.getMessage());
-                    callback.onComplete();
-                }
+    /**
+     * streamGenerateContent (SSE) を使用してレシピを生成する。
+     * 受信したチャンクは onPartial で逐次通知し、完了時に全文を onResult で通知する。
+     */
+    public GenerationHandle generateRecipeStream(String apiKey, String ingredientsWithUsage, String allConstraints, RecipeCallback callback) {
+        return generateRecipeStream(apiKey, ingredientsWithUsage, allConstraints, false, callback);
+    }
 
-                @Override
-                public void onResponse(Call call, Response response) throws IOException {
-                    try {
-                        if (!response.isSuccessful()) {
-                            String errorBody = response.body().string();
-                            Log.e(TAG, "API call unsuccessful: " + response.code() + ", Body: " + errorBody);
-                            callback.onFailure("APIエラー: " + response.code() + " - " + parseApiError(errorBody));
-                            return; // 失敗時も onComplete を呼ぶため、finallyへ移動
-                        }
+    /**
+     * @param bypassCache true の場合はキャッシュを参照せずに再生成する（結果はキャッシュを上書き）
+     * @return キャンセル用のハンドル
+     */
+    public GenerationHandle generateRecipeStream(String apiKey, String ingredientsWithUsage, String allConstraints, boolean bypassCache, RecipeCallback callback) {
+        return startGeneration(apiKey, ingredientsWithUsage, allConstraints, bypassCache, GenerationSpec.STREAM, callback);
+    }
 
-                        String responseBody = response.body().string();
-                        String recipe = parseRecipeFromResponse(responseBody);
-                        callback.onResult(recipe);
-                    } catch (Exception e) {
-                        Log.e(TAG, "Error processing API response: " + e.getMessage());
-                        callback.onFailure("レスポンス処理エラー: " + e.getMessage());
-                    } finally {
-                        // 成功・失敗にかかわらず、処理完了を通知
-                        callback.onComplete(); 
-                        if (response != null) {
-                            response.close();
-                        }
-                    }
-                }
-            });
-        } catch (JSONException e) {
-            Log.e(TAG, "Error building JSON body: " + e.getMessage());
-            callback.onFailure("内部エラー: JSON構築失敗");
-            callback.onComplete();
-        }
+    /**
+     * generationConfig の candidateCount を指定し、1回のリクエストで複数のレシピ案を生成する。
+     * 全ての案は onVariants で、先頭の案は onResult で通知する。
+     *
+     * @param variantCount 生成する案の数（1〜{@link #MAX_VARIANTS}）
+     */
+    public GenerationHandle generateRecipeVariants(String apiKey, String ingredientsWithUsage, String allConstraints,
+                                                   int variantCount, boolean bypassCache, RecipeCallback callback) {
+        int count = Math.max(1, Math.min(variantCount, MAX_VARIANTS));
+        return startGeneration(apiKey, ingredientsWithUsage, allConstraints, bypassCache, GenerationSpec.variants(count), callback);
     }
 
-    private String buildRecipePrompt(String ingredientsWithUsage, String allConstraints) {
-        return String.format(
-            "以下の情報に基づいて、実用的で美味しいレシピを日本語で提案してください。\n" +
-            "結果は、レシピ名、材料、手順の3つのセクションに分けて、Markdown形式で整形してください。\n" +
-            "---情報---\n" +
-            "利用食材: %s\n" +
-            "全ての制約: %s\n" +
-            "---レシピ要件---\n" +
-            "上記の「全ての制約」を最大限満たすようにしてください。特に【最重要指示】がある場合はそれを最優先してください。\n",
-            ingredientsWithUsage, allConstraints);
+    private GenerationHandle startGeneration(String apiKey, String ingredientsWithUsage, String allConstraints,
+                                             boolean bypassCache, GenerationSpec spec, RecipeCallback callback) {
+        GenerationHandle handle = new GenerationHandle(callback);
+        String prompt = RecipePrompt.build(ingredientsWithUsage, allConstraints);
+        int estimatedTokens = RecipePrompt.estimateTokens(prompt);
+        if (estimatedTokens > RecipePrompt.PROMPT_TOKEN_BUDGET) {
+            Log.w(TAG, "Prompt exceeds token budget: estimated=" + estimatedTokens + ", budget=" + RecipePrompt.PROMPT_TOKEN_BUDGET);
+        } else {
+            Log.d(TAG, "Estimated prompt tokens=" + estimatedTokens);
+        }
+        String cacheKey = buildCacheKey(prompt, spec);
+
+        if (bypassCache) {
+            joinOrStart(apiKey, prompt, cacheKey, spec, handle);
+            return handle;
+        }
+        cache.getAsync(cacheKey, cached -> {
+            if (handle.isCanceled()) {
+                return;
+            }
+            if (cached == null) {
+                joinOrStart(apiKey, prompt, cacheKey, spec, handle);
+                return;
+            }
+            List<String> variants = Arrays.asList(cached.split(VARIANT_SEPARATOR));
+            // キャッシュヒット時は全文を1チャンクとして通知
+            handle.dispatchCacheHit();
+            handle.dispatchPartial(variants.get(0));
+            if (spec.candidateCount > 1) {
+                handle.dispatchVariants(variants);
+            }
+            handle.dispatchResult(variants.get(0));
+            handle.dispatchComplete();
+        });
+        return handle;
     }
 
-    private String buildJsonBody(String prompt) throws JSONException {
-        JSONObject content = new JSONObject();
-        content.put("role", "user");
+    /**
+     * 同一キーのリクエストが実行中であれば相乗りし、なければ新規に送信する。
+     */
+    private void joinOrStart(String apiKey, String prompt, String cacheKey, GenerationSpec spec, GenerationHandle handle) {
+        String flightKey = (spec.streaming ? "stream:" : "generate:") + cacheKey;
+        while (!handle.isCanceled()) {
+            InFlightGeneration existing = inFlight.get(flightKey);
+            if (existing != null) {
+                if (existing.addSubscriber(handle)) {
+                    Log.d(TAG, "Joined in-flight request: " + flightKey);
+                    return;
+                }
+                // 完了・中断済みのエントリは取り除いて再試行
+                inFlight.remove(flightKey, existing);
+                continue;
+            }
 
-        JSONObject textPart = new JSONObject();
-        textPart.put("text", prompt);
+            InFlightGeneration flight = new InFlightGeneration(flightKey, f -> inFlight.remove(f.getKey(), f));
+            if (inFlight.putIfAbsent(flightKey, flight) != null) {
+                continue; // 他スレッドが先に登録した
+            }
+            flight.addSubscriber(handle);
+            enqueue(apiKey, prompt, cacheKey, spec, flight);
+            return;
+        }
+    }
 
-        JSONArray parts = new JSONArray();
-        parts.put(textPart);
+    private void enqueue(String apiKey, String prompt, String cacheKey, GenerationSpec spec, InFlightGeneration flight) {
+        String url = apiUrlBase + (spec.streaming ? STREAM_GENERATE_PATH : GENERATE_PATH) + apiKey;
 
-        JSONObject contentObject = new JSONObject();
-        contentObject.put("role", "user");
-        contentObject.put("parts", parts);
+        // リクエストJSONは送信時にソケットへ直接書き込む（再試行時も同じ RequestBody を再利用できる）
+        RequestBody body = new GeminiRequestBody(prompt, spec.generationConfigBytes);
+        Request.Builder builder = new Request.Builder().url(url);
 
-        JSONArray contents = new JSONArray();
-        contents.put(contentObject);
+        RequestBody compressed = compressIfLarge(body);
+        if (compressed != null) {
+            builder.header("Content-Encoding", "gzip").post(compressed);
+        } else {
+            builder.post(body);
+        }
+        Request request = builder.build();
 
-        JSONObject generationConfig = new JSONObject();
-        generationConfig.put("temperature", 0.9);
+        executeAttempt(request, cacheKey, spec, flight, 1, System.currentTimeMillis());
+    }
 
-        JSONObject json = new JSONObject();
-        json.put("contents", contents);
-        json.put("generationConfig", generationConfig);
+    /**
+     * 本文が閾値以上であれば gzip 圧縮した RequestBody を返す。圧縮しない場合は null。
+     */
+    private RequestBody compressIfLarge(RequestBody body) {
+        int threshold = compressionThresholdBytes;
+        try {
+            if (threshold <= 0 || compressionDisabled.get() || body.contentLength() < threshold) {
+                return null;
+            }
+            GzipRequestBody compressed = new GzipRequestBody(body);
+            Log.d(TAG, "Request body compressed: " + body.contentLength() + " -> " + compressed.contentLength() + " bytes");
+            return compressed;
+        } catch (IOException e) {
+            Log.w(TAG, "Request compression failed, sending uncompressed: " + e.getMessage());
+            return null;
+        }
+    }
 
-        return json.toString();
+    /**
+     * gzip 圧縮した本文がサーバーに拒否されたと判断できるか。
+     * 415 (Unsupported Media Type) のみを対象とする（400 は通常の INVALID_ARGUMENT と区別できないため）。
+     */
+    private boolean isCompressionRejected(Request request, int code) {
+        return code == 415 && request.body() instanceof GzipRequestBody;
     }
 
-    private String parseRecipeFromResponse(String responseBody) throws JSONException {
-        JSONObject json = new JSONObject(responseBody);
+    /**
+     * 1回分の送信を行う。一時的なエラーの場合は RetryPolicy に従って再送をスケジュールする。
+     */
+    private void executeAttempt(Request request, String cacheKey, GenerationSpec spec, InFlightGeneration flight,
+                                int attempt, long startedAt) {
+        if (flight.isAbandoned()) {
+            return; // 待機中に購読者が全員キャンセルした
+        }
 
-        if (json.has("candidates")) {
-            JSONArray candidates = json.getJSONArray("candidates");
-            if (candidates.length() > 0) {
-                JSONObject candidate = candidates.getJSONObject(0);
-                JSONObject content = candidate.getJSONObject("content");
-                if (content.has("parts")) { // partsの存在チェックを追加
-                    JSONArray parts = content.getJSONArray("parts");
-                    if (parts.length() > 0) {
-                        JSONObject part = parts.getJSONObject(0);
-                        return part.getString("text");
+        Call call = client.newCall(request);
+        flight.setCall(call);
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                if (call.isCanceled()) {
+                    Log.d(TAG, "API call canceled: " + flight.getKey());
+                    return; // 購読者は全員キャンセル済み
+                }
+                Log.e(TAG, "API call failed (attempt " + attempt + "): " + e.getMessage());
+                if (scheduleRetry(request, cacheKey, spec, flight, attempt, startedAt, -1)) {
+                    return;
+                }
+                finish(flight, attempt, false);
+                flight.publishFailure("ネットワークエラー: " + e.getMessage());
+                flight.publishComplete();
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                boolean retrying = false;
+                boolean success = false;
+                try (ResponseBody responseBody = response.body()) {
+                    if (!response.isSuccessful()) {
+                        String errorBody = responseBody.string();
+                        Log.e(TAG, "API call unsuccessful (attempt " + attempt + "): " + response.code() + ", Body: " + errorBody);
+                        ApiError apiError = parseApiErrorDetails(errorBody);
+
+                        if (isCompressionRejected(request, response.code())) {
+                            // 以降は非圧縮で送信し、今回のリクエストも非圧縮で即座に送り直す（試行回数には数えない）
+                            compressionDisabled.set(true);
+                            Log.w(TAG, "Server rejected gzip request body; compression disabled for this session.");
+                            Request plain = request.newBuilder()
+                                    .removeHeader("Content-Encoding")
+                                    .post(((GzipRequestBody) request.body()).getUncompressed())
+                                    .build();
+                            retrying = true;
+                            executeAttempt(plain, cacheKey, spec, flight, attempt, startedAt);
+                            return;
+                        }
+
+                        if (retryPolicy.isRetryableStatus(response.code())) {
+                            long serverDelay = Math.max(parseRetryAfter(response), apiError.retryDelayMillis);
+                            retrying = scheduleRetry(request, cacheKey, spec, flight, attempt, startedAt, serverDelay);
+                        }
+                        if (!retrying) {
+                            flight.publishFailure("APIエラー: " + response.code() + " - " + apiError.message);
+                        }
+                        return; // 失敗時も onComplete を呼ぶため、finallyへ移動
+                    }
+
+                    List<String> texts = spec.streaming
+                            ? Collections.singletonList(readStream(responseBody.source(), flight))
+                            : parseRecipesFromResponse(responseBody);
+                    List<String> recipes = Recipe.toCompactJson(texts);
+                    if (!recipes.isEmpty()) {
+                        cache.put(cacheKey, String.join(VARIANT_SEPARATOR, recipes));
+                        if (spec.candidateCount > 1) {
+                            flight.publishVariants(recipes);
+                        }
+                        flight.publishResult(recipes.get(0));
+                        success = true;
+                    } else if (texts.isEmpty() || texts.get(0).isEmpty()) {
+                        flight.publishResult(EMPTY_RESPONSE_MESSAGE);
+                    } else {
+                        // 出力トークンの上限で途中までしか返らなかった場合など。キャッシュはしない
+                        Log.w(TAG, "Response is not a valid recipe JSON: " + texts.get(0));
+                        flight.publishFailure(INVALID_RESPONSE_MESSAGE);
+                    }
+                } catch (Exception e) {
+                    if (call.isCanceled()) {
+                        return;
+                    }
+                    Log.e(TAG, "Error processing API response: " + e.getMessage());
+                    // ストリーミングで既にテキストを配信済みの場合は、重複表示を避けるため再試行しない。
+                    // 本文中で返されたエラーは、HTTP エラーと同様にステータスが再試行対象の場合だけ再試行する
+                    boolean retryable = e instanceof ResponseErrorException
+                            ? retryPolicy.isRetryableStatus(((ResponseErrorException) e).code)
+                            : e instanceof IOException;
+                    if (!flight.hasStreamedText() && retryable) {
+                        retrying = scheduleRetry(request, cacheKey, spec, flight, attempt, startedAt, -1);
+                    }
+                    if (!retrying) {
+                        if (e instanceof ResponseErrorException) {
+                            flight.publishFailure("APIエラー: " + ((ResponseErrorException) e).code + " - " + e.getMessage());
+                        } else {
+                            flight.publishFailure("レスポンス処理エラー: " + e.getMessage());
+                        }
+                    }
+                } finally {
+                    // 成功・失敗にかかわらず、処理完了を通知（再試行待ち・キャンセル済みの場合を除く）
+                    if (!retrying && !call.isCanceled()) {
+                        finish(flight, attempt, success);
+                        flight.publishComplete();
                     }
                 }
             }
+        });
+    }
+
+    /**
+     * ポリシーが許せば次の試行をスケジュールして true を返す。
+     */
+    private boolean scheduleRetry(Request request, String cacheKey, GenerationSpec spec, InFlightGeneration flight,
+                                  int attempt, long startedAt, long serverDelayMillis) {
+        long elapsed = System.currentTimeMillis() - startedAt;
+        long delay = retryPolicy.nextDelayMillis(attempt, elapsed, serverDelayMillis);
+        if (delay == RetryPolicy.NO_RETRY || flight.isAbandoned()) {
+            return false;
         }
-        return "AIからのレスポンスが空でした。";
+
+        metrics.recordRetry();
+        Log.w(TAG, "Retrying in " + delay + "ms (attempt " + (attempt + 1) + "/" + retryPolicy.getMaxAttempts() + ")");
+        retryScheduler.schedule(
+                () -> executeAttempt(request, cacheKey, spec, flight, attempt + 1, startedAt),
+                delay, TimeUnit.MILLISECONDS);
+        return true;
     }
 
-    private String parseApiError(String errorBody) {
+    private void finish(InFlightGeneration flight, int attempts, boolean success) {
+        metrics.recordFinished(attempts, success);
+        Log.d(TAG, "Request finished after " + attempts + " attempt(s), success=" + success + ". " + metrics.getSummary());
+    }
+
+    /**
+     * Retry-After ヘッダー（秒数またはHTTP日付）をミリ秒に変換する。指定がなければ -1。
+     */
+    private long parseRetryAfter(Response response) {
+        String value = response.header("Retry-After");
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Math.max(0, Long.parseLong(value.trim()) * 1000);
+        } catch (NumberFormatException e) {
+            Date date = response.headers().getDate("Retry-After");
+            return date != null ? Math.max(0, date.getTime() - System.currentTimeMillis()) : -1;
+        }
+    }
+
+    /**
+     * キャッシュキーはプロンプトに加えてモデル名と generationConfig にも依存させる。
+     */
+    private String buildCacheKey(String prompt, GenerationSpec spec) {
+        return RecipeCache.keyFor(MODEL_NAME, spec.generationConfigJson, prompt);
+    }
+
+    /**
+     * SSEストリームを行単位で読み、各 "data:" イベントのテキストを通知しながら全文を組み立てる。
+     */
+    private String readStream(BufferedSource source, InFlightGeneration flight) throws IOException {
+        StringBuilder assembled = new StringBuilder();
+        GeminiResponseParser.GeminiResponse lastChunk = null;
+        String line;
+        while ((line = source.readUtf8Line()) != null) {
+            if (!line.startsWith(SSE_DATA_PREFIX)) {
+                continue; // 空行（イベント区切り）やコメント行は無視
+            }
+            String data = line.substring(SSE_DATA_PREFIX.length()).trim();
+            if (data.isEmpty()) {
+                continue;
+            }
+
+            GeminiResponseParser.GeminiResponse chunk = GeminiResponseParser.parse(new StringReader(data));
+            if (chunk.hasError()) {
+                throw new ResponseErrorException(chunk.errorCode, chunk.errorMessage);
+            }
+
+            String delta = chunk.getText();
+            if (!delta.isEmpty()) {
+                assembled.append(delta);
+                flight.publishPartial(delta);
+            }
+            lastChunk = chunk;
+        }
+        if (lastChunk != null) {
+            // finishReason と usageMetadata は最後のチャンクに含まれる
+            logResponseMetadata(lastChunk);
+        }
+        return assembled.toString();
+    }
+
+    /**
+     * 一括生成のレスポンスを、本文を String に読み込まずに BufferedSource から直接解析する。
+     * @return 各候補のレシピ本文（index順）。候補が空の場合は空リスト
+     */
+    private List<String> parseRecipesFromResponse(ResponseBody responseBody) throws IOException {
+        GeminiResponseParser.GeminiResponse parsed;
+        try (Reader reader = responseBody.charStream()) {
+            parsed = GeminiResponseParser.parse(reader);
+        }
+        if (parsed.hasError()) {
+            throw new ResponseErrorException(parsed.errorCode, parsed.errorMessage);
+        }
+        logResponseMetadata(parsed);
+        return parsed.getCandidateTexts();
+    }
+
+    private void logResponseMetadata(GeminiResponseParser.GeminiResponse response) {
+        Log.d(TAG, "finishReason=" + response.finishReason
+                + ", promptTokens=" + response.promptTokenCount
+                + ", candidatesTokens=" + response.candidatesTokenCount
+                + ", totalTokens=" + response.totalTokenCount);
+    }
+
+    /**
+     * エラーレスポンスからメッセージと、google.rpc.RetryInfo の retryDelay（例: "13s"）を取り出す。
+     */
+    private ApiError parseApiErrorDetails(String errorBody) {
+        String message = "詳細不明 (サーバーはエラーを返しました)";
+        long retryDelayMillis = -1;
         try {
             JSONObject json = new JSONObject(errorBody);
             if (json.has("error")) {
                 JSONObject error = json.getJSONObject("error");
                 if (error.has("message")) {
-                    return error.getString("message");
+                    message = error.getString("message");
+                }
+                JSONArray details = error.optJSONArray("details");
+                for (int i = 0; details != null && i < details.length(); i++) {
+                    JSONObject detail = details.optJSONObject(i);
+                    if (detail != null && detail.optString("@type").endsWith(RETRY_INFO_TYPE)) {
+                        retryDelayMillis = parseDurationMillis(detail.optString("retryDelay"));
+                    }
                 }
             }
         } catch (JSONException e) {
             Log.e(TAG, "Error parsing API error: " + e.getMessage());
         }
-        return "詳細不明 (サーバーはエラーを返しました)";
+        return new ApiError(message, retryDelayMillis);
+    }
+
+    /**
+     * protobuf Duration のJSON表現（"13s", "0.5s"）をミリ秒に変換する。解釈できなければ -1。
+     */
+    private long parseDurationMillis(String duration) {
+        if (duration == null || !duration.endsWith("s")) {
+            return -1;
+        }
+        try {
+            return (long) (Double.parseDouble(duration.substring(0, duration.length() - 1)) * 1000);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 生成方式（ストリーミングか、候補数）と、それに対応するエンコード済み generationConfig。
+     */
+    private static final class GenerationSpec {
+        static final GenerationSpec SINGLE = new GenerationSpec(false, 1);
+        static final GenerationSpec STREAM = new GenerationSpec(true, 1);
+
+        final boolean streaming;
+        final int candidateCount;
+        final String generationConfigJson;
+        final byte[] generationConfigBytes;
+
+        private GenerationSpec(boolean streaming, int candidateCount) {
+            this.streaming = streaming;
+            this.candidateCount = candidateCount;
+            this.generationConfigJson = "{\"temperature\":" + TEMPERATURE
+                    + (candidateCount > 1 ? ",\"candidateCount\":" + candidateCount : "")
+                    + ",\"responseMimeType\":\"application/json\",\"responseSchema\":" + RESPONSE_SCHEMA_JSON + "}";
+            // generationConfig は固定のため、エンコード済みのバイト列を全リクエストで使い回す
+            this.generationConfigBytes = generationConfigJson.getBytes(StandardCharsets.UTF_8);
+        }
+
+        static GenerationSpec variants(int count) {
+            return count == 1 ? SINGLE : new GenerationSpec(false, count);
+        }
+    }
+
+    /**
+     * 200 のレスポンス本文（SSE の各イベントを含む）で返された error。code は error.code（無ければ -1）
+     */
+    private static final class ResponseErrorException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        final int code;
+
+        ResponseErrorException(int code, String message) {
+            super(message);
+            this.code = code;
+        }
+    }
+
+    private static class ApiError {
+        final String message;
+        final long retryDelayMillis;
+
+        ApiError(String message, long retryDelayMillis) {
+            this.message = message;
+            this.retryDelayMillis = retryDelayMillis;
+        }
     }
 }
\ No newline at end of file
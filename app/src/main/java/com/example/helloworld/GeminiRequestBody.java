@@ -0,0 +1,132 @@
+package com.example.liefantidia2;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+/**
+ * generateContent のリクエストJSONを、OkHttp の BufferedSink に直接書き込む RequestBody。
+ *
+ * JSONObject のツリー構築 → String 化 → byte[] へのコピー、という中間表現を作らず、
+ * 固定部分（role や構造、generationConfig）は事前にエンコードしたバイト列をそのまま書き込み、
+ * 可変部分であるプロンプトだけをエスケープしながら UTF-8 で書き出します。
+ */
+final class GeminiRequestBody extends RequestBody {
+
+    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+
+    // {"contents":[{"role":"user","parts":[{"text":"<prompt>"}]}],"generationConfig":<config>}
+    private static final byte[] PREFIX =
+            "{\"contents\":[{\"role\":\"user\",\"parts\":[{\"text\":\"".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] CONFIG_PREFIX =
+            "\"}]}],\"generationConfig\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SUFFIX = "}".getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private final String prompt;
+    private final byte[] generationConfig;
+    private final long contentLength;
+
+    /**
+     * @param prompt ユーザープロンプト（エスケープ前）
+     * @param generationConfig エンコード済みの generationConfig JSON（呼び出し元で使い回すこと）
+     */
+    GeminiRequestBody(String prompt, byte[] generationConfig) {
+        this.prompt = prompt;
+        this.generationConfig = generationConfig;
+        this.contentLength = PREFIX.length + escapedUtf8Length(prompt)
+                + CONFIG_PREFIX.length + generationConfig.length + SUFFIX.length;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return JSON;
+    }
+
+    @Override
+    public long contentLength() {
+        return contentLength;
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        sink.write(PREFIX);
+        writeEscaped(sink, prompt);
+        sink.write(CONFIG_PREFIX);
+        sink.write(generationConfig);
+        sink.write(SUFFIX);
+    }
+
+    /**
+     * JSON文字列としてエスケープしながら書き込む。
+     * エスケープ不要な連続区間は writeUtf8(String, begin, end) で直接セグメントにエンコードする。
+     */
+    static void writeEscaped(BufferedSink sink, String value) throws IOException {
+        int runStart = 0;
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') {
+                continue;
+            }
+            if (runStart < i) {
+                sink.writeUtf8(value, runStart, i);
+            }
+            writeEscapedChar(sink, c);
+            runStart = i + 1;
+        }
+        if (runStart < length) {
+            sink.writeUtf8(value, runStart, length);
+        }
+    }
+
+    private static void writeEscapedChar(BufferedSink sink, char c) throws IOException {
+        sink.writeByte('\\');
+        switch (c) {
+            case '"':  sink.writeByte('"'); break;
+            case '\\': sink.writeByte('\\'); break;
+            case '\n': sink.writeByte('n'); break;
+            case '\r': sink.writeByte('r'); break;
+            case '\t': sink.writeByte('t'); break;
+            case '\b': sink.writeByte('b'); break;
+            case '\f': sink.writeByte('f'); break;
+            default:
+                // その他の制御文字は \\u00XX
+                sink.writeByte('u').writeByte('0').writeByte('0')
+                    .writeByte(HEX[(c >> 4) & 0xF]).writeByte(HEX[c & 0xF]);
+        }
+    }
+
+    /**
+     * エスケープ後の UTF-8 バイト数を、文字列を生成せずに計算する。
+     */
+    static long escapedUtf8Length(String value) {
+        long bytes = 0;
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x20) {
+                boolean shortForm = c == '\n' || c == '\r' || c == '\t' || c == '\b' || c == '\f';
+                bytes += shortForm ? 2 : 6;
+            } else if (c == '"' || c == '\\') {
+                bytes += 2;
+            } else if (c < 0x80) {
+                bytes += 1;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (!Character.isSurrogate(c)) {
+                bytes += 3;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                bytes += 4; // サロゲートペアは4バイト
+                i++;
+            } else {
+                bytes += 1; // 不正な単独サロゲートは okio が '?' に置換する
+            }
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,234 @@
+package com.example.liefantidia2;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Gemini API の generateContent レスポンスを、ツリーを構築せずに1パスで読み取るパーサー。
+ *
+ * レスポンス本文を String に読み込まず、Reader（OkHttp の BufferedSource）から直接読み進めます。
+ * 必要なフィールド（各候補のテキスト、finishReason、usageMetadata、error）以外のサブツリーは
+ * skipValue() で読み飛ばすため、長いレシピでもピークメモリはテキスト本体の分だけで済みます。
+ */
+final class GeminiResponseParser {
+
+    private GeminiResponseParser() {
+        // インスタンス化しない
+    }
+
+    /**
+     * レスポンス1件（またはSSEの1チャンク）を解析する。Reader は呼び出し元で閉じること。
+     */
+    static GeminiResponse parse(Reader reader) throws IOException {
+        JsonReader json = new JsonReader(reader);
+        GeminiResponse response = new GeminiResponse();
+
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "candidates":
+                    readCandidates(json, response);
+                    break;
+                case "usageMetadata":
+                    readUsageMetadata(json, response);
+                    break;
+                case "error":
+                    readError(json, response);
+                    break;
+                default:
+                    json.skipValue(); // modelVersion, responseId など
+            }
+        }
+        json.endObject();
+        return response;
+    }
+
+    private static void readCandidates(JsonReader json, GeminiResponse response) throws IOException {
+        if (skipIfNull(json)) {
+            return;
+        }
+        json.beginArray();
+        int position = 0;
+        while (json.hasNext()) {
+            readCandidate(json, response, position++);
+        }
+        json.endArray();
+    }
+
+    /**
+     * 候補1件を読む。candidateCount 指定時は複数件返るため、index（無ければ配列内の位置）ごとに保持する。
+     */
+    private static void readCandidate(JsonReader json, GeminiResponse response, int position) throws IOException {
+        StringBuilder text = new StringBuilder();
+        int index = position;
+        String finishReason = null;
+
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "content":
+                    readContent(json, text);
+                    break;
+                case "finishReason":
+                    finishReason = nextStringOrNull(json);
+                    break;
+                case "index":
+                    index = json.nextInt();
+                    break;
+                default:
+                    json.skipValue(); // safetyRatings, citationMetadata など
+            }
+        }
+        json.endObject();
+
+        response.candidateText(index).append(text);
+        if (index == 0 || response.finishReason == null) {
+            response.finishReason = finishReason;
+        }
+    }
+
+    /**
+     * content.parts[] の text を全て連結する（複数 parts に分割されて返る場合がある）。
+     */
+    private static void readContent(JsonReader json, StringBuilder text) throws IOException {
+        if (skipIfNull(json)) {
+            return;
+        }
+        json.beginObject();
+        while (json.hasNext()) {
+            if (!"parts".equals(json.nextName())) {
+                json.skipValue(); // role など
+                continue;
+            }
+            if (skipIfNull(json)) {
+                continue;
+            }
+            json.beginArray();
+            while (json.hasNext()) {
+                json.beginObject();
+                while (json.hasNext()) {
+                    if ("text".equals(json.nextName()) && json.peek() == JsonToken.STRING) {
+                        text.append(json.nextString());
+                    } else {
+                        json.skipValue();
+                    }
+                }
+                json.endObject();
+            }
+            json.endArray();
+        }
+        json.endObject();
+    }
+
+    private static void readUsageMetadata(JsonReader json, GeminiResponse response) throws IOException {
+        if (skipIfNull(json)) {
+            return;
+        }
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "promptTokenCount":
+                    response.promptTokenCount = json.nextInt();
+                    break;
+                case "candidatesTokenCount":
+                    response.candidatesTokenCount = json.nextInt();
+                    break;
+                case "totalTokenCount":
+                    response.totalTokenCount = json.nextInt();
+                    break;
+                default:
+                    json.skipValue(); // promptTokensDetails, thoughtsTokenCount など
+            }
+        }
+        json.endObject();
+    }
+
+    private static void readError(JsonReader json, GeminiResponse response) throws IOException {
+        if (skipIfNull(json)) {
+            return;
+        }
+        json.beginObject();
+        while (json.hasNext()) {
+            String name = json.nextName();
+            if ("message".equals(name)) {
+                response.errorMessage = nextStringOrNull(json);
+            } else if ("code".equals(name) && json.peek() == JsonToken.NUMBER) {
+                response.errorCode = json.nextInt();
+            } else {
+                json.skipValue();
+            }
+        }
+        json.endObject();
+        if (response.errorMessage == null) {
+            response.errorMessage = "";
+        }
+    }
+
+    private static boolean skipIfNull(JsonReader json) throws IOException {
+        if (json.peek() == JsonToken.NULL) {
+            json.nextNull();
+            return true;
+        }
+        return false;
+    }
+
+    private static String nextStringOrNull(JsonReader json) throws IOException {
+        return skipIfNull(json) ? null : json.nextString();
+    }
+
+    /**
+     * 解析結果。テキスト以外の値はレスポンスに含まれていなければ null / -1。
+     */
+    static final class GeminiResponse {
+        // 先頭の候補（index 0）のテキスト
+        final StringBuilder text = new StringBuilder();
+        // index 1 以降の候補のテキスト（candidateCount 指定時のみ）
+        private final List<StringBuilder> otherCandidates = new ArrayList<>();
+        String finishReason;
+        int promptTokenCount = -1;
+        int candidatesTokenCount = -1;
+        int totalTokenCount = -1;
+        String errorMessage;
+        // error.code（HTTP ステータスと同じ値。含まれていなければ -1）
+        int errorCode = -1;
+
+        String getText() {
+            return text.toString();
+        }
+
+        StringBuilder candidateText(int index) {
+            if (index <= 0) {
+                return text;
+            }
+            while (otherCandidates.size() < index) {
+                otherCandidates.add(new StringBuilder());
+            }
+            return otherCandidates.get(index - 1);
+        }
+
+        /**
+         * 全候補のテキストを index 順に返す（空の候補は除く）
+         */
+        List<String> getCandidateTexts() {
+            List<String> texts = new ArrayList<>(otherCandidates.size() + 1);
+            if (text.length() > 0) {
+                texts.add(text.toString());
+            }
+            for (StringBuilder candidate : otherCandidates) {
+                if (candidate.length() > 0) {
+                    texts.add(candidate.toString());
+                }
+            }
+            return texts;
+        }
+
+        boolean hasError() {
+            return errorMessage != null;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.example.liefantidia2;
+
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleEventObserver;
+import androidx.lifecycle.LifecycleOwner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * GeminiApiClient のレシピ生成1件ごとに返されるキャンセル可能なハンドル。
+ *
+ * キャンセルまたは完了した時点でコールバックへの参照を破棄するため、
+ * Activity が生成完了（最大でリードタイムアウト）まで保持され続けることはありません。
+ * 同一リクエストを共有している他の呼び出し元がいなければ、通信自体も中断されます。
+ */
+public class GenerationHandle {
+
+    private final AtomicBoolean canceled = new AtomicBoolean(false);
+
+    // 完了・キャンセル後は null にしてコールバック（=Activity）を解放する
+    private volatile GeminiApiClient.RecipeCallback callback;
+    private volatile InFlightGeneration flight;
+
+    // 途中から参加した際、ストリーミング済みのテキストを配信し終えるまで保留した通知（null は保留していない状態）
+    private final Object deferredLock = new Object();
+    private List<Runnable> deferred;
+
+    GenerationHandle(GeminiApiClient.RecipeCallback callback) {
+        this.callback = callback;
+    }
+
+    /**
+     * 生成をキャンセルする。以降、コールバックは一切呼ばれない。
+     */
+    public void cancel() {
+        if (!canceled.compareAndSet(false, true)) {
+            return;
+        }
+        callback = null;
+        InFlightGeneration current = flight;
+        if (current != null) {
+            current.removeSubscriber(this);
+        }
+    }
+
+    public boolean isCanceled() {
+        return canceled.get();
+    }
+
+    /**
+     * 指定したライフサイクルが破棄（ON_DESTROY）された時点で自動的にキャンセルする。
+     * Lifecycle の仕様上、メインスレッドから呼び出すこと。
+     */
+    public GenerationHandle bindTo(LifecycleOwner owner) {
+        Lifecycle lifecycle = owner.getLifecycle();
+        if (lifecycle.getCurrentState() == Lifecycle.State.DESTROYED) {
+            cancel();
+            return this;
+        }
+        lifecycle.addObserver(new LifecycleEventObserver() {
+            @Override
+            public void onStateChanged(LifecycleOwner source, Lifecycle.Event event) {
+                if (event == Lifecycle.Event.ON_DESTROY) {
+                    source.getLifecycle().removeObserver(this);
+                    cancel();
+                }
+            }
+        });
+        return this;
+    }
+
+    void attach(InFlightGeneration flight) {
+        this.flight = flight;
+    }
+
+    /**
+     * 以降の通知を {@link #dispatchDeferred} まで保留する
+     */
+    void deferDispatch() {
+        synchronized (deferredLock) {
+            deferred = new ArrayList<>();
+        }
+    }
+
+    /**
+     * streamed を途中経過として配信してから、保留中の通知を受け取った順に配信する（コールバックはロックの外で呼ぶ）
+     */
+    void dispatchDeferred(CharSequence streamed) {
+        deliverPartial(streamed);
+        while (true) {
+            List<Runnable> pending;
+            synchronized (deferredLock) {
+                if (deferred.isEmpty()) {
+                    deferred = null;
+                    return;
+                }
+                pending = deferred;
+                deferred = new ArrayList<>();
+            }
+            for (Runnable notification : pending) {
+                notification.run();
+            }
+        }
+    }
+
+    // --- InFlightGeneration / GeminiApiClient からの通知 ---
+
+    void dispatchCacheHit() {
+        dispatch(() -> {
+            GeminiApiClient.RecipeCallback target = callback;
+            if (target != null) {
+                target.onCacheHit();
+            }
+        });
+    }
+
+    void dispatchPartial(CharSequence delta) {
+        dispatch(() -> deliverPartial(delta));
+    }
+
+    void dispatchVariants(List<String> variants) {
+        dispatch(() -> {
+            GeminiApiClient.RecipeCallback target = callback;
+            if (target != null) {
+                target.onVariants(variants);
+            }
+        });
+    }
+
+    void dispatchResult(String result) {
+        dispatch(() -> {
+            GeminiApiClient.RecipeCallback target = callback;
+            if (target != null) {
+                target.onResult(result);
+            }
+        });
+    }
+
+    void dispatchFailure(String error) {
+        dispatch(() -> {
+            GeminiApiClient.RecipeCallback target = callback;
+            if (target != null) {
+                target.onFailure(error);
+            }
+        });
+    }
+
+    void dispatchComplete() {
+        dispatch(() -> {
+            GeminiApiClient.RecipeCallback target = callback;
+            callback = null;
+            flight = null;
+            if (target != null) {
+                target.onComplete();
+            }
+        });
+    }
+
+    private void dispatch(Runnable notification) {
+        synchronized (deferredLock) {
+            if (deferred != null) {
+                deferred.add(notification);
+                return;
+            }
+        }
+        notification.run();
+    }
+
+    private void deliverPartial(CharSequence delta) {
+        GeminiApiClient.RecipeCallback target = callback;
+        if (target != null) {
+            target.onPartial(delta);
+        }
+    }
+}
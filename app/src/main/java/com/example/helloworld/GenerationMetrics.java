@@ -0,0 +1,66 @@
+package com.example.liefantidia2;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * レシピ生成リクエストの試行回数に関する集計値。
+ * 「何回目の試行で終わったか」の分布と、成功・失敗件数を保持します。
+ */
+public class GenerationMetrics {
+
+    private final AtomicLongArray attemptsHistogram;
+    private final AtomicLong succeeded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+
+    public GenerationMetrics(int maxAttempts) {
+        // index = 試行回数（0は未使用）
+        attemptsHistogram = new AtomicLongArray(Math.max(maxAttempts, 1) + 1);
+    }
+
+    void recordRetry() {
+        retries.incrementAndGet();
+    }
+
+    void recordFinished(int attempts, boolean success) {
+        int index = Math.min(Math.max(attempts, 1), attemptsHistogram.length() - 1);
+        attemptsHistogram.incrementAndGet(index);
+        (success ? succeeded : failed).incrementAndGet();
+    }
+
+    /**
+     * 指定した試行回数で終了したリクエスト数
+     */
+    public long getRequestsFinishedAfter(int attempts) {
+        if (attempts < 1 || attempts >= attemptsHistogram.length()) {
+            return 0;
+        }
+        return attemptsHistogram.get(attempts);
+    }
+
+    public long getSucceededCount() {
+        return succeeded.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    public long getRetryCount() {
+        return retries.get();
+    }
+
+    public String getSummary() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("succeeded=").append(succeeded.get())
+          .append(", failed=").append(failed.get())
+          .append(", retries=").append(retries.get())
+          .append(", attempts={");
+        for (int i = 1; i < attemptsHistogram.length(); i++) {
+            if (i > 1) sb.append(", ");
+            sb.append(i).append(':').append(attemptsHistogram.get(i));
+        }
+        return sb.append('}').toString();
+    }
+}
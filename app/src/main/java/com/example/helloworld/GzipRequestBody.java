@@ -0,0 +1,54 @@
+package com.example.liefantidia2;
+
+import java.io.IOException;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ByteString;
+import okio.GzipSink;
+import okio.Okio;
+
+/**
+ * リクエスト本文を gzip 圧縮して送信する RequestBody（Content-Encoding: gzip と併用する）。
+ *
+ * 圧縮は生成時に1回だけ行い、結果を保持します。これにより Content-Length を付けて送信でき、
+ * 再試行時も再圧縮せずに同じ本文を再送できます。サーバーが gzip を受け付けなかった場合に
+ * 非圧縮で送り直せるよう、元の本文も保持します。
+ */
+final class GzipRequestBody extends RequestBody {
+
+    private final RequestBody uncompressed;
+    private final ByteString compressed;
+
+    GzipRequestBody(RequestBody uncompressed) throws IOException {
+        this.uncompressed = uncompressed;
+
+        Buffer buffer = new Buffer();
+        try (BufferedSink gzipSink = Okio.buffer(new GzipSink(buffer))) {
+            uncompressed.writeTo(gzipSink);
+        }
+        // snapshot はセグメントを共有するため、追加のコピーは発生しない
+        this.compressed = buffer.snapshot();
+    }
+
+    RequestBody getUncompressed() {
+        return uncompressed;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return uncompressed.contentType();
+    }
+
+    @Override
+    public long contentLength() {
+        return compressed.size();
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        sink.write(compressed);
+    }
+}
@@ -1,42 +1,66 @@
 package com.example.liefantidia2;
 
-import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
-import android.util.Log;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.view.View;
 import android.widget.Button;
+import android.widget.EditText;
 import android.widget.ImageButton;
+import android.widget.ProgressBar;
 import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.recyclerview.widget.ConcatAdapter;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
-import com.google.firebase.auth.FirebaseAuth;
-import com.google.firebase.auth.FirebaseUser;
-import com.google.firebase.firestore.CollectionReference;
-import com.google.firebase.firestore.FirebaseFirestore;
-import com.google.firebase.firestore.Query;
-import com.google.firebase.firestore.QueryDocumentSnapshot;
-
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 
 public class HistoryActivity extends AppCompatActivity implements HistoryAdapter.HistoryActionListener {
 
     private static final String TAG = "HistoryActivity";
+
+    // 1ページの件数と、末尾から何件手前で次のページを読み込み始めるか
+    private static final int PAGE_SIZE = 20;
+    private static final int PREFETCH_DISTANCE = 5;
+    // 削除の進捗を表示する最小件数（1件ずつの削除では表示しない）
+    private static final int PROGRESS_DISPLAY_THRESHOLD = 10;
+    // 入力が止まってから検索するまでの待ち時間と、検索結果の最大件数
+    private static final long SEARCH_DEBOUNCE_MS = 150;
+    private static final int SEARCH_LIMIT = 100;
+
     private RecyclerView recyclerView;
+    private LinearLayoutManager layoutManager;
     private HistoryAdapter adapter;
+    private LoadingFooterAdapter footerAdapter;
     private TextView emptyHistoryText;
     private Button clearAllButton;
+    private View clearProgressLayout;
+    private TextView clearProgressText;
+    private ProgressBar clearProgressBar;
+    private EditText searchEditText;
 
-    // Firestore関連
-    private FirebaseFirestore db;
-    private String userId;
-    private CollectionReference historyRef;
+    // ローカルDBを正本とし、Firestoreとの同期はHistoryManagerに任せる
+    private HistoryManager historyManager;
+
+    // ページングの状態（メインスレッドのみで参照）
+    private boolean isLoadingPage = false;
+    private boolean hasMorePages = true;
+    // 再読み込みで破棄された読み込み結果を無視するための世代番号
+    private int loadGeneration = 0;
+
+    // 検索中の文字列（空なら通常の一覧表示）
+    private String currentQuery = "";
+    private final Handler searchHandler = new Handler(Looper.getMainLooper());
+    private final Runnable searchRunnable = this::refresh;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -46,61 +70,201 @@ public class HistoryActivity extends AppCompatActivity implements HistoryAdapter
         recyclerView = findViewById(R.id.recycler_view_history);
         emptyHistoryText = findViewById(R.id.text_empty_history);
         clearAllButton = findViewById(R.id.button_clear_history);
+        clearProgressLayout = findViewById(R.id.layout_clear_progress);
+        clearProgressText = findViewById(R.id.text_clear_progress);
+        clearProgressBar = findViewById(R.id.progress_bar_clear);
+        searchEditText = findViewById(R.id.edit_search_history);
         ImageButton backButton = findViewById(R.id.button_back);
 
-        db = FirebaseFirestore.getInstance();
-        FirebaseUser user = FirebaseAuth.getInstance().getCurrentUser();
         // ユーザーIDは認証が完了しているはず
-        userId = user != null ? user.getUid() : "anonymous_user"; 
-        
         // Firestoreのパス: /artifacts/{appId}/users/{userId}/history
-        String appId = HistoryManager.getAppId(this);
-        historyRef = db.collection(
-            String.format("artifacts/%s/users/%s/history", appId, userId)
-        );
+        historyManager = new HistoryManager(this);
 
         setupRecyclerView();
+        setupSearch();
 
         backButton.setOnClickListener(v -> finish());
         clearAllButton.setOnClickListener(v -> showClearHistoryConfirmation());
 
+        // ローカルの履歴を即座に表示し、他の端末での変更は同期後に反映する
+        historyManager.setOnHistoryChangedListener(this::refresh);
+        // 表示中は他の端末での変更を1件ずつ受け取り、該当する行だけを更新する
+        historyManager.setOnHistoryUpdatedListener(this::applyRemoteChanges);
+        // 前回中断した全件削除も、同期の再開時にここで進捗が表示される
+        historyManager.setOnDeleteProgressListener(this::showDeleteProgress);
         loadHistory();
+        historyManager.requestSync();
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        // スナップショットリスナーは画面が見えている間だけ登録する
+        historyManager.startRealtimeUpdates();
+    }
+
+    @Override
+    protected void onStop() {
+        historyManager.stopRealtimeUpdates();
+        super.onStop();
+    }
+
+    @Override
+    protected void onDestroy() {
+        historyManager.setOnHistoryChangedListener(null);
+        historyManager.setOnHistoryUpdatedListener(null);
+        historyManager.setOnDeleteProgressListener(null);
+        searchHandler.removeCallbacks(searchRunnable);
+        super.onDestroy();
     }
 
     private void setupRecyclerView() {
-        recyclerView.setLayoutManager(new LinearLayoutManager(this));
-        adapter = new HistoryAdapter(this, new ArrayList<>(), this);
-        recyclerView.setAdapter(adapter);
+        layoutManager = new LinearLayoutManager(this);
+        recyclerView.setLayoutManager(layoutManager);
+        adapter = new HistoryAdapter(this, this);
+        footerAdapter = new LoadingFooterAdapter();
+        recyclerView.setAdapter(new ConcatAdapter(adapter, footerAdapter));
+        recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView rv, int dx, int dy) {
+                maybeLoadNextPage();
+            }
+        });
     }
 
     /**
-     * Firestoreから履歴データを読み込む
+     * 入力のたびに検索せず、入力が止まってから1回だけ検索する
+     */
+    private void setupSearch() {
+        searchEditText.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                String query = s.toString().trim();
+                if (query.equals(currentQuery)) {
+                    return;
+                }
+                currentQuery = query;
+                searchHandler.removeCallbacks(searchRunnable);
+                searchHandler.postDelayed(searchRunnable, SEARCH_DEBOUNCE_MS);
+            }
+        });
+    }
+
+    /**
+     * 検索中なら検索し直し、そうでなければ一覧を読み込み直す
+     */
+    private void refresh() {
+        if (currentQuery.isEmpty()) {
+            loadHistory();
+        } else {
+            search(currentQuery);
+        }
+    }
+
+    /**
+     * ローカルDBの索引から検索する（通信は行わない）。検索結果はページングせず、一覧の読み込み中の結果は破棄する
+     */
+    private void search(String query) {
+        int generation = ++loadGeneration;
+        onPageLoaded(false);
+        historyManager.searchHistory(query, SEARCH_LIMIT, (searchedQuery, results) -> {
+            if (generation != loadGeneration || !searchedQuery.equals(currentQuery)) {
+                return;
+            }
+            updateUi(results);
+        });
+    }
+
+    /**
+     * ローカルDBから履歴データを先頭から読み込み直す（インデックス付きのクエリのみで、通信は行わない）。
+     * 削除や同期の後でもスクロール位置が飛ばないよう、読み込み済みの件数分をまとめて取得する。
      */
     private void loadHistory() {
-        // 時刻降順でクエリ
-        historyRef.orderBy("timestamp", Query.Direction.DESCENDING)
-                .get()
-                .addOnSuccessListener(queryDocumentSnapshots -> {
-                    List<RecipeHistory> historyList = new ArrayList<>();
-                    for (QueryDocumentSnapshot document : queryDocumentSnapshots) {
-                        RecipeHistory history = document.toObject(RecipeHistory.class);
-                        history.setId(document.getId());
-                        historyList.add(history);
-                    }
-                    updateUi(historyList);
-                })
-                .addOnFailureListener(e -> {
-                    Log.e(TAG, "Error loading history: ", e);
-                    Toast.makeText(this, "履歴の読み込みに失敗しました。", Toast.LENGTH_SHORT).show();
-                    updateUi(new ArrayList<>()); // 失敗時もUIを更新して空表示
-                });
+        int generation = ++loadGeneration;
+        int count = Math.max(PAGE_SIZE, adapter.getLatestCount());
+        isLoadingPage = true;
+        historyManager.loadHistoryPage(null, count, (page, hasMore) -> {
+            if (generation != loadGeneration) {
+                return;
+            }
+            onPageLoaded(hasMore);
+            updateUi(page);
+            recyclerView.post(this::maybeLoadNextPage);
+        });
+    }
+
+    /**
+     * 他の端末での追加・更新・削除を一覧に適用する（再読み込みはせず、該当する行だけを更新する）
+     */
+    private void applyRemoteChanges(List<RecipeHistory> changed, List<String> removedIds) {
+        if (!currentQuery.isEmpty()) {
+            search(currentQuery); // 検索結果は関連度順のため、検索し直す
+            return;
+        }
+        if (isLoadingPage) {
+            // 読み込み中のページとの競合を避け、読み込み済みの範囲を読み直す（ローカルDBのみ）
+            loadHistory();
+            return;
+        }
+        adapter.applyChanges(changed, new HashSet<>(removedIds), !hasMorePages);
+        updateEmptyState(adapter.getLatestCount() == 0);
+    }
+
+    /**
+     * 表示中の末尾がプリフェッチ距離内に入ったら、次のページを読み込む
+     */
+    private void maybeLoadNextPage() {
+        if (isLoadingPage || !hasMorePages) {
+            return;
+        }
+        if (layoutManager.findLastVisibleItemPosition() < adapter.getItemCount() - PREFETCH_DISTANCE) {
+            return;
+        }
+        RecipeHistory last = adapter.getLastItem();
+        if (last == null) {
+            return;
+        }
+
+        int generation = loadGeneration;
+        isLoadingPage = true;
+        footerAdapter.setLoading(true);
+        historyManager.loadHistoryPage(last, PAGE_SIZE, (page, hasMore) -> {
+            if (generation != loadGeneration) {
+                return;
+            }
+            onPageLoaded(hasMore);
+            adapter.appendList(page);
+            // 画面が埋まらない場合に備え、レイアウト後にもう一度判定する
+            recyclerView.post(this::maybeLoadNextPage);
+        });
+    }
+
+    private void onPageLoaded(boolean hasMore) {
+        isLoadingPage = false;
+        hasMorePages = hasMore;
+        footerAdapter.setLoading(false);
     }
     
     /**
      * 履歴リストに基づいてUI（RecyclerViewと空メッセージ）を更新
      */
     private void updateUi(List<RecipeHistory> historyList) {
-        if (historyList.isEmpty()) {
+        updateEmptyState(historyList.isEmpty());
+        adapter.updateList(historyList);
+    }
+
+    private void updateEmptyState(boolean empty) {
+        if (empty) {
+            emptyHistoryText.setText(currentQuery.isEmpty()
+                    ? R.string.history_empty_message : R.string.history_search_no_result);
             emptyHistoryText.setVisibility(View.VISIBLE);
             recyclerView.setVisibility(View.GONE);
             clearAllButton.setEnabled(false);
@@ -109,7 +273,6 @@ public class HistoryActivity extends AppCompatActivity implements HistoryAdapter
             recyclerView.setVisibility(View.VISIBLE);
             clearAllButton.setEnabled(true);
         }
-        adapter.updateList(historyList);
     }
 
     // --- HistoryAdapter.HistoryActionListener の実装 ---
@@ -123,13 +286,26 @@ public class HistoryActivity extends AppCompatActivity implements HistoryAdapter
     }
 
     /**
-     * レシピ再表示ボタンがクリックされた時の処理 (MainActivityに戻す)
+     * レシピ再表示ボタンがクリックされた時の処理 (本文を読み込んでMainActivityに戻す)
      */
     @Override
     public void onShowClicked(RecipeHistory item) {
-        // MainActivityに戻り、結果をMainActivityで受け取る
+        // 一覧には要約しか読み込んでいないため、本文をここで読み込む
+        historyManager.loadRecipeBody(item, history -> {
+            if (history == null) {
+                Toast.makeText(this, "レシピ本文の読み込みに失敗しました。", Toast.LENGTH_SHORT).show();
+                return;
+            }
+            showRecipe(history);
+        });
+    }
+
+    private void showRecipe(RecipeHistory item) {
+        // MainActivityに戻り、結果をMainActivityで受け取る。
+        // 本文は RecipeStore に読み込み済みのため、Intent にはIDと一覧用の項目だけを載せる
         Intent intent = new Intent(this, MainActivity.class);
-        intent.putExtra("RECIPE_HISTORY_ITEM", item);
+        intent.putExtra(MainActivity.EXTRA_HISTORY_ID, item.getId());
+        intent.putExtra(MainActivity.EXTRA_HISTORY_SUMMARY, item.toSummary());
         intent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP | Intent.FLAG_ACTIVITY_SINGLE_TOP);
         startActivity(intent);
         finish();
@@ -150,19 +326,22 @@ public class HistoryActivity extends AppCompatActivity implements HistoryAdapter
     }
 
     /**
-     * Firestoreから個別のレシピを削除
+     * 個別のレシピを削除（Firestoreからの削除は同期時にバックグラウンドで行われる）。
+     * 一覧からは先に取り除き、削除に失敗した場合だけ元の位置に戻す（再読み込みは行わない）。
      */
     private void deleteRecipe(RecipeHistory item) {
-        historyRef.document(item.getId()).delete()
-                .addOnSuccessListener(aVoid -> {
-                    Toast.makeText(this, "レシピ「" + item.getRecipeTitle() + "」を削除しました。", Toast.LENGTH_SHORT).show();
-                    // UIを更新するため再読み込み
-                    loadHistory();
-                })
-                .addOnFailureListener(e -> {
-                    Log.e(TAG, "Error deleting document: " + item.getId(), e);
-                    Toast.makeText(this, "削除に失敗しました。", Toast.LENGTH_SHORT).show();
-                });
+        adapter.removeItem(item.getId());
+        updateEmptyState(adapter.getLatestCount() == 0);
+
+        historyManager.deleteRecipe(item.getId(), success -> {
+            if (success) {
+                Toast.makeText(this, "レシピ「" + item.getRecipeTitle() + "」を削除しました。", Toast.LENGTH_SHORT).show();
+            } else {
+                adapter.restoreItem(item);
+                updateEmptyState(false);
+                Toast.makeText(this, "削除に失敗しました。", Toast.LENGTH_SHORT).show();
+            }
+        });
     }
 
     /**
@@ -178,30 +357,39 @@ public class HistoryActivity extends AppCompatActivity implements HistoryAdapter
     }
 
     /**
-     * Firestoreから全ての履歴を削除
+     * Firestoreからの削除の進捗を表示する。件数が少ない場合は表示しない
+     */
+    private void showDeleteProgress(int deleted, int total) {
+        if (deleted >= total || total < PROGRESS_DISPLAY_THRESHOLD) {
+            clearProgressLayout.setVisibility(View.GONE);
+            return;
+        }
+        clearProgressLayout.setVisibility(View.VISIBLE);
+        clearProgressBar.setMax(total);
+        clearProgressBar.setProgress(deleted);
+        clearProgressText.setText(getString(R.string.history_clear_progress, deleted, total));
+    }
+
+    /**
+     * 全ての履歴を削除（Firestoreからの削除は同期時にバックグラウンドで行われる）
      */
     private void clearAllHistory() {
-        historyRef.get().addOnSuccessListener(queryDocumentSnapshots -> {
-            if (queryDocumentSnapshots.isEmpty()) {
-                Toast.makeText(this, "削除する履歴はありません。", Toast.LENGTH_SHORT).show();
-                return;
-            }
-            
-            // バッチ処理で全てのドキュメントを削除
-            db.runBatch(batch -> {
-                for (QueryDocumentSnapshot snapshot : queryDocumentSnapshots) {
-                    batch.delete(snapshot.getReference());
-                }
-            }).addOnSuccessListener(aVoid -> {
+        if (adapter.getLatestCount() == 0) {
+            Toast.makeText(this, "削除する履歴はありません。", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        // 読み込み中のページは破棄し、一覧を先に空にする
+        loadGeneration++;
+        onPageLoaded(false);
+        updateUi(new ArrayList<>());
+
+        historyManager.clearHistory(success -> {
+            if (success) {
                 Toast.makeText(this, R.string.toast_history_cleared, Toast.LENGTH_SHORT).show();
-                loadHistory(); // UIを更新
-            }).addOnFailureListener(e -> {
-                Log.e(TAG, "Error clearing all history: ", e);
+            } else {
                 Toast.makeText(this, "全ての履歴の削除に失敗しました。", Toast.LENGTH_SHORT).show();
-            });
-        }).addOnFailureListener(e -> {
-            Log.e(TAG, "Error fetching history for deletion: ", e);
-            Toast.makeText(this, "履歴取得中にエラーが発生しました。", Toast.LENGTH_SHORT).show();
+                refresh(); // 削除されなかった履歴を表示し直す
+            }
         });
     }
-}
\ No newline at end of file
+}
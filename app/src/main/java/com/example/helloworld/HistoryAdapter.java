@@ -1,7 +1,6 @@
 package com.example.liefantidia2;
 
 import android.content.Context;
-import android.text.TextUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -11,31 +10,57 @@ import android.widget.Button;
 import android.widget.Toast; // ★ 追加: Toastを使用できるようにする
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
 
 /**
  * レシピ履歴リスト用のRecyclerViewアダプタ。
+ *
+ * ListAdapter（AsyncListDiffer）で新旧のリストの差分をバックグラウンドスレッドで計算し、
+ * 変更のあった行だけを更新・挿入・削除する。行の同一性は RecipeHistory#getId() で判定する。
  */
-public class HistoryAdapter extends RecyclerView.Adapter<HistoryAdapter.HistoryViewHolder> {
+public class HistoryAdapter extends ListAdapter<RecipeHistory, HistoryAdapter.HistoryViewHolder> {
+
+    private static final DiffUtil.ItemCallback<RecipeHistory> DIFF_CALLBACK = new DiffUtil.ItemCallback<RecipeHistory>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull RecipeHistory oldItem, @NonNull RecipeHistory newItem) {
+            return Objects.equals(oldItem.getId(), newItem.getId());
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull RecipeHistory oldItem, @NonNull RecipeHistory newItem) {
+            // 一覧に表示する項目だけを比較する
+            return Objects.equals(oldItem.getDisplayDate(), newItem.getDisplayDate())
+                    && Objects.equals(oldItem.getRecipeTitle(), newItem.getRecipeTitle())
+                    && Objects.equals(oldItem.getSummary(), newItem.getSummary());
+        }
+    };
 
-    private final List<RecipeHistory> historyList;
     private final HistoryActionListener listener;
     private final Context context;
 
+    // 最後に submitList したリスト。差分計算中は getCurrentList() がまだ古いため、
+    // 続けて行う追加・削除はこちらを基準にする
+    private List<RecipeHistory> latestList = Collections.emptyList();
+
     public interface HistoryActionListener {
         void onDeleteClicked(RecipeHistory item);
         void onShowClicked(RecipeHistory item);
         // ダウンロードはHistoryActivityで処理するため、ここでは不要だが将来的に追加可能
     }
 
-    public HistoryAdapter(Context context, List<RecipeHistory> historyList, HistoryActionListener listener) {
+    public HistoryAdapter(Context context, HistoryActionListener listener) {
+        super(DIFF_CALLBACK);
         this.context = context;
-        this.historyList = historyList;
         this.listener = listener;
     }
 
@@ -44,27 +69,21 @@ public class HistoryAdapter extends RecyclerView.Adapter<HistoryAdapter.HistoryV
     public HistoryViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
         View view = LayoutInflater.from(parent.getContext())
                 .inflate(R.layout.list_item_history, parent, false);
-        return new HistoryViewHolder(view);
-    }
-
-    @Override
-    public void onBindViewHolder(@NonNull HistoryViewHolder holder, int position) {
-        RecipeHistory item = historyList.get(position);
-
-        holder.titleText.setText(item.getRecipeTitle());
-        holder.ingredientsText.setText(buildConstraintSummary(item));
-        holder.dateText.setText(formatTimestamp(item.getTimestamp()));
+        HistoryViewHolder holder = new HistoryViewHolder(view);
 
+        // クリックリスナーは ViewHolder ごとに1回だけ設定し、押された時点の行を参照する
         // 個別削除ボタン
         holder.deleteButton.setOnClickListener(v -> {
-            if (listener != null) {
+            RecipeHistory item = getItemAt(holder);
+            if (listener != null && item != null) {
                 listener.onDeleteClicked(item);
             }
         });
 
         // 再表示ボタン
         holder.showButton.setOnClickListener(v -> {
-            if (listener != null) {
+            RecipeHistory item = getItemAt(holder);
+            if (listener != null && item != null) {
                 listener.onShowClicked(item);
             }
         });
@@ -73,65 +92,128 @@ public class HistoryAdapter extends RecyclerView.Adapter<HistoryAdapter.HistoryV
         holder.downloadButton.setOnClickListener(v -> {
             Toast.makeText(context, "ダウンロード機能は実装中です。", Toast.LENGTH_SHORT).show();
         });
+        return holder;
     }
 
     @Override
-    public int getItemCount() {
-        return historyList.size();
+    public void onBindViewHolder(@NonNull HistoryViewHolder holder, int position) {
+        RecipeHistory item = getItem(position);
+
+        // 表示用の文字列は読み込み時にバックグラウンドで作成済みのため、ここでは代入のみ
+        holder.titleText.setText(item.getRecipeTitle());
+        holder.ingredientsText.setText(item.getSummary());
+        holder.dateText.setText(item.getDisplayDate());
+    }
+
+    private RecipeHistory getItemAt(HistoryViewHolder holder) {
+        int position = holder.getBindingAdapterPosition();
+        return position == RecyclerView.NO_POSITION ? null : getItem(position);
     }
 
     /**
-     * リストを更新してUIを再描画する
+     * リストを差し替える。差分は非同期に計算され、変更のあった行だけが更新される
      */
     public void updateList(List<RecipeHistory> newList) {
-        historyList.clear();
-        historyList.addAll(newList);
-        notifyDataSetChanged();
+        submit(new ArrayList<>(newList));
     }
 
     /**
-     * Firestoreのタイムスタンプ (long) を整形
+     * 次のページの履歴を末尾に追加する（既存の行は再バインドしない）
      */
-    private String formatTimestamp(long timestamp) {
-        SimpleDateFormat sdf = new SimpleDateFormat("yyyy/MM/dd HH:mm", Locale.getDefault());
-        return sdf.format(new Date(timestamp));
+    public void appendList(List<RecipeHistory> page) {
+        if (page.isEmpty()) {
+            return;
+        }
+        List<RecipeHistory> newList = new ArrayList<>(latestList.size() + page.size());
+        newList.addAll(latestList);
+        newList.addAll(page);
+        submit(newList);
     }
 
     /**
-     * 制約情報から簡潔なサマリー文字列を生成
+     * 指定したIDの行を取り除く（楽観的削除）
      */
-    private String buildConstraintSummary(RecipeHistory item) {
-        StringBuilder sb = new StringBuilder();
-
-        // 具材情報
-        String ingredients = item.getIngredientsWithUsage();
-        if (!TextUtils.isEmpty(ingredients)) {
-            // " (入力された具材は全て使用してください)" のような指示部分を削除して表示
-            int index = ingredients.indexOf(" (");
-            String displayIngredients = (index > 0) ? ingredients.substring(0, index) : ingredients;
-            sb.append("具材: ").append(displayIngredients);
+    public void removeItem(String id) {
+        List<RecipeHistory> newList = new ArrayList<>(latestList.size());
+        for (RecipeHistory item : latestList) {
+            if (!Objects.equals(item.getId(), id)) {
+                newList.add(item);
+            }
         }
+        submit(newList);
+    }
 
-        // 制約情報
-        String constraints = item.getAllConstraints();
-        if (!TextUtils.isEmpty(constraints)) {
-            // 主食の分類、難易度、ジャンル、調理時間、食事制限、価格帯などを含む文字列。
-            // 自由指示（最重要指示）は長くなるので省略
-            int importantIndex = constraints.indexOf("【最重要指示】");
-            String displayConstraints = (importantIndex > 0) ? constraints.substring(0, importantIndex).trim() : constraints.trim();
-
-            if (sb.length() > 0) {
-                sb.append(" | ");
+    /**
+     * 取り除いた行を、時刻降順の位置に戻す（削除失敗時のロールバック）
+     */
+    public void restoreItem(RecipeHistory restored) {
+        List<RecipeHistory> newList = new ArrayList<>(latestList.size() + 1);
+        boolean inserted = false;
+        for (RecipeHistory item : latestList) {
+            if (!inserted && item.getTimestamp() < restored.getTimestamp()) {
+                newList.add(restored);
+                inserted = true;
             }
-            sb.append("設定: ").append(displayConstraints);
+            newList.add(item);
+        }
+        if (!inserted) {
+            newList.add(restored);
         }
+        submit(newList);
+    }
 
-        // 長すぎる場合は省略
-        String summary = sb.toString();
-        if (summary.length() > 80) {
-            return summary.substring(0, 77) + "...";
+    /**
+     * 他の端末での追加・更新・削除を、該当する行だけに適用する。
+     * 追加された行は時刻降順の位置に挿入するが、読み込み済みの範囲より古いものは
+     * 続きのページの読み込み時に表示されるため挿入しない（includeOlder が true の場合を除く）。
+     *
+     * @param includeOlder 全件読み込み済みで、末尾より古い行も挿入する場合 true
+     */
+    public void applyChanges(List<RecipeHistory> changed, Collection<String> removedIds, boolean includeOlder) {
+        Map<String, RecipeHistory> pending = new HashMap<>();
+        for (RecipeHistory item : changed) {
+            pending.put(item.getId(), item);
+        }
+        List<RecipeHistory> newList = new ArrayList<>(latestList.size() + pending.size());
+        for (RecipeHistory item : latestList) {
+            if (removedIds.contains(item.getId())) {
+                continue;
+            }
+            RecipeHistory replacement = pending.remove(item.getId());
+            newList.add(replacement != null ? replacement : item);
+        }
+        long oldest = newList.isEmpty() ? Long.MIN_VALUE : newList.get(newList.size() - 1).getTimestamp();
+        for (RecipeHistory added : pending.values()) {
+            if (includeOlder || added.getTimestamp() >= oldest) {
+                newList.add(added);
+            }
+        }
+        if (!changed.isEmpty()) {
+            // 更新で時刻が変わった行も含め、時刻降順・ID降順に並べ直す（ローカルDBのページ順と同じ）
+            Collections.sort(newList, (a, b) -> a.getTimestamp() != b.getTimestamp()
+                    ? Long.compare(b.getTimestamp(), a.getTimestamp())
+                    : b.getId().compareTo(a.getId()));
         }
-        return summary;
+        submit(newList);
+    }
+
+    /**
+     * 表示中（差分計算中のものを含む）の件数
+     */
+    public int getLatestCount() {
+        return latestList.size();
+    }
+
+    /**
+     * 読み込み済みの末尾の要素（次のページの取得位置）。空の場合は null
+     */
+    public RecipeHistory getLastItem() {
+        return latestList.isEmpty() ? null : latestList.get(latestList.size() - 1);
+    }
+
+    private void submit(List<RecipeHistory> newList) {
+        latestList = Collections.unmodifiableList(newList);
+        submitList(latestList);
     }
 
     public static class HistoryViewHolder extends RecyclerView.ViewHolder {
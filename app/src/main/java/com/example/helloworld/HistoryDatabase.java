@@ -0,0 +1,689 @@
+package com.example.liefantidia2;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+
+import androidx.annotation.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * レシピ履歴のローカルデータベース（SQLite）。履歴の正本はこちらで、Firestore へは
+ * HistorySyncEngine がバックグラウンドで同期します。
+ *
+ * 各行は Firestore のコレクションパス（owner）ごとに区別し、未送信の追加・削除を
+ * sync_state で管理します。画面からの読み書きは {@link #execute(Runnable)} のI/Oスレッドで行い、
+ * 同期エンジンは自身のスレッドから直接呼び出します（書き込みの直列化は SQLiteDatabase が行います）。
+ */
+final class HistoryDatabase extends SQLiteOpenHelper {
+
+    private static final String DATABASE_NAME = "recipe_history.db";
+    private static final int DATABASE_VERSION = 7;
+
+    // 同期状態
+    static final int STATE_SYNCED = 0;
+    static final int STATE_PENDING_INSERT = 1;
+    static final int STATE_PENDING_DELETE = 2;
+
+    private static final String TABLE_HISTORY = "history";
+    private static final String COL_OWNER = "owner";
+    private static final String COL_ID = "id";
+    private static final String COL_TITLE = "recipe_title";
+    private static final String COL_SUMMARY = "summary";
+    private static final String COL_INGREDIENTS = "ingredients_with_usage";
+    private static final String COL_CONSTRAINTS = "all_constraints";
+    private static final String COL_CONTENT = "recipe_content";
+    private static final String COL_TIMESTAMP = "timestamp";
+    private static final String COL_SYNC_STATE = "sync_state";
+
+    private static final String TABLE_SYNC_META = "sync_meta";
+    private static final String COL_LAST_PULLED = "last_pulled_timestamp";
+    // 全件削除を要求した時刻。この時刻以前のリモートのドキュメントは削除が完了するまで掃除の対象
+    private static final String COL_CLEAR_BEFORE = "clear_before_timestamp";
+    // 前回取り込んだ墓標（他の端末での削除）の deletedAt（ミリ秒）
+    private static final String COL_LAST_PULLED_DELETED_AT = "last_pulled_deleted_at";
+
+    // 全文検索用の索引（トークン → 履歴の行）。doc は history の rowid で、owner や履歴IDの文字列は索引の行に持たない。
+    // weight はトークンの出現回数に項目ごとの重みを掛けたもの
+    private static final String TABLE_TERMS = "history_terms";
+    private static final String COL_TERM = "term";
+    private static final String COL_DOC = "doc";
+    private static final String COL_WEIGHT = "weight";
+
+    // 検索時のスコアの重み（タイトルに含まれる語を最も重視する）
+    private static final int WEIGHT_TITLE = 3;
+    private static final int WEIGHT_INGREDIENTS = 2;
+    private static final int WEIGHT_OTHER = 1;
+
+    private static final String[] HISTORY_COLUMNS = {
+            COL_ID, COL_TITLE, COL_INGREDIENTS, COL_CONSTRAINTS, COL_CONTENT, COL_TIMESTAMP, COL_SUMMARY
+    };
+    // 索引の作成に使う列（先頭は索引の doc にする rowid）
+    private static final String[] INDEX_COLUMNS = {
+            "rowid", COL_TITLE, COL_SUMMARY, COL_INGREDIENTS, COL_CONSTRAINTS, COL_CONTENT
+    };
+    // 一覧表示用（レシピ本文などの大きな列は読み込まない）
+    private static final String[] SUMMARY_COLUMNS = {
+            COL_ID, COL_TITLE, COL_SUMMARY, COL_TIMESTAMP
+    };
+
+    private static volatile HistoryDatabase sharedInstance;
+
+    private final ExecutorService ioExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "HistoryDatabase-io");
+        t.setDaemon(true);
+        return t;
+    });
+
+    static HistoryDatabase getInstance(Context context) {
+        HistoryDatabase instance = sharedInstance;
+        if (instance == null) {
+            synchronized (HistoryDatabase.class) {
+                instance = sharedInstance;
+                if (instance == null) {
+                    instance = new HistoryDatabase(context.getApplicationContext());
+                    sharedInstance = instance;
+                }
+            }
+        }
+        return instance;
+    }
+
+    private HistoryDatabase(Context context) {
+        this(context, DATABASE_NAME);
+    }
+
+    /**
+     * 端末上のテストで、アプリの履歴とは別のファイルを使う
+     */
+    @VisibleForTesting
+    HistoryDatabase(Context context, String name) {
+        super(context, name, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_HISTORY + " ("
+                + COL_OWNER + " TEXT NOT NULL, "
+                + COL_ID + " TEXT NOT NULL, "
+                + COL_TITLE + " TEXT, "
+                + COL_SUMMARY + " TEXT, "
+                + COL_INGREDIENTS + " TEXT, "
+                + COL_CONSTRAINTS + " TEXT, "
+                + COL_CONTENT + " TEXT, "
+                + COL_TIMESTAMP + " INTEGER NOT NULL, "
+                + COL_SYNC_STATE + " INTEGER NOT NULL DEFAULT " + STATE_SYNCED + ", "
+                + "PRIMARY KEY (" + COL_OWNER + ", " + COL_ID + "))");
+        createPageIndex(db);
+        db.execSQL("CREATE INDEX idx_history_owner_sync_state ON " + TABLE_HISTORY
+                + " (" + COL_OWNER + ", " + COL_SYNC_STATE + ")");
+
+        db.execSQL("CREATE TABLE " + TABLE_SYNC_META + " ("
+                + COL_OWNER + " TEXT PRIMARY KEY, "
+                + COL_LAST_PULLED + " INTEGER NOT NULL DEFAULT 0, "
+                + COL_CLEAR_BEFORE + " INTEGER NOT NULL DEFAULT 0, "
+                + COL_LAST_PULLED_DELETED_AT + " INTEGER NOT NULL DEFAULT 0)");
+
+        createTermsTable(db);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 2) {
+            // v2: ページングのキー（timestamp, id）をインデックスに含める
+            db.execSQL("DROP INDEX IF EXISTS idx_history_owner_timestamp");
+            createPageIndex(db);
+        }
+        if (oldVersion < 3) {
+            // v3: 全件削除を中断後に再開できるよう、要求時刻を保存する
+            db.execSQL("ALTER TABLE " + TABLE_SYNC_META + " ADD COLUMN "
+                    + COL_CLEAR_BEFORE + " INTEGER NOT NULL DEFAULT 0");
+        }
+        if (oldVersion < 4) {
+            // v4: 一覧表示用の要約列を追加し、既存の行は本文を読み込まずに済むよう作成しておく
+            db.execSQL("ALTER TABLE " + TABLE_HISTORY + " ADD COLUMN " + COL_SUMMARY + " TEXT");
+            backfillSummaries(db);
+            // 取り込み済みの履歴は Firestore 上で旧形式（本文を含む）のままのため、
+            // 次回の同期で要約と本文に分けて書き直す
+            db.execSQL("UPDATE " + TABLE_HISTORY + " SET " + COL_SYNC_STATE + " = " + STATE_PENDING_INSERT
+                    + " WHERE " + COL_SYNC_STATE + " = " + STATE_SYNCED);
+        }
+        if (oldVersion < 6) {
+            // v6: 他の端末での削除（墓標）をどこまで取り込んだかを保存する
+            db.execSQL("ALTER TABLE " + TABLE_SYNC_META + " ADD COLUMN "
+                    + COL_LAST_PULLED_DELETED_AT + " INTEGER NOT NULL DEFAULT 0");
+        }
+        if (oldVersion < 7) {
+            // v5: 全文検索の索引を追加し、既存の履歴を索引に登録する
+            // v7: 索引の行から owner と履歴IDを除き、履歴の rowid で引く形式に作り直す（索引の容量を減らす）
+            db.execSQL("DROP TABLE IF EXISTS " + TABLE_TERMS);
+            createTermsTable(db);
+            reindexAll(db);
+        }
+    }
+
+    /**
+     * 索引は history の rowid で行を指す。rowid は VACUUM で振り直されることがあるが、このアプリは VACUUM を行わない。
+     * 行を消す・REPLACE で置き換える場合は rowid が変わるため、先に {@link #deleteTerms} で索引を消すこと。
+     */
+    private static void createTermsTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_TERMS + " ("
+                + COL_TERM + " TEXT NOT NULL, "
+                + COL_DOC + " INTEGER NOT NULL, "
+                + COL_WEIGHT + " INTEGER NOT NULL, "
+                + "PRIMARY KEY (" + COL_TERM + ", " + COL_DOC + ")) WITHOUT ROWID");
+        // 履歴1件分の索引を差し替える・消す際に使う
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_history_terms_doc ON " + TABLE_TERMS
+                + " (" + COL_DOC + ")");
+    }
+
+    /**
+     * 全ての履歴を1回の走査で索引に登録する（索引は空の状態で呼ぶこと）
+     */
+    private static void reindexAll(SQLiteDatabase db) {
+        try (Cursor cursor = db.query(TABLE_HISTORY, INDEX_COLUMNS, null, null, null, null, null);
+             SQLiteStatement insert = compileTermInsert(db)) {
+            while (cursor.moveToNext()) {
+                insertTerms(insert, cursor);
+            }
+        }
+    }
+
+    private static void backfillSummaries(SQLiteDatabase db) {
+        try (Cursor cursor = db.query(TABLE_HISTORY, new String[]{COL_OWNER, COL_ID, COL_INGREDIENTS, COL_CONSTRAINTS},
+                null, null, null, null, null)) {
+            while (cursor.moveToNext()) {
+                ContentValues values = new ContentValues();
+                values.put(COL_SUMMARY, HistorySummary.build(cursor.getString(2), cursor.getString(3)));
+                db.update(TABLE_HISTORY, values, COL_OWNER + " = ? AND " + COL_ID + " = ?",
+                        new String[]{cursor.getString(0), cursor.getString(1)});
+            }
+        }
+    }
+
+    /**
+     * 履歴一覧（owner + 時刻降順）のページ取得を、インデックスの範囲走査だけで行えるようにする。
+     */
+    private static void createPageIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_history_owner_timestamp_id ON " + TABLE_HISTORY
+                + " (" + COL_OWNER + ", " + COL_TIMESTAMP + " DESC, " + COL_ID + " DESC)");
+    }
+
+    /**
+     * ローカルDB用の単一スレッドで処理を実行する。
+     */
+    void execute(Runnable task) {
+        ioExecutor.execute(task);
+    }
+
+    // --- 読み込み（メインスレッド以外から呼ぶこと） ---
+
+    /**
+     * 削除予定のものを除いた履歴を、時刻降順で1ページ分返す（キーセットページング）。
+     * OFFSET を使わず直前のページ末尾の (timestamp, id) より後ろを取得するため、
+     * 何ページ目でもインデックス上の位置から読み始めるだけで済む。
+     * 返す要素は一覧表示用の項目（ID、タイトル、要約、時刻）のみで、本文は {@link #queryBody} で読み込む。
+     *
+     * @param after 直前のページの末尾の要素。先頭ページの場合は null
+     * @param limit 取得件数
+     */
+    List<RecipeHistory> queryHistoryPage(String owner, RecipeHistory after, int limit) {
+        String selection = COL_SYNC_STATE + " != " + STATE_PENDING_DELETE;
+        String[] args;
+        if (after == null) {
+            args = new String[]{owner};
+        } else {
+            selection += " AND (" + COL_TIMESTAMP + " < ? OR (" + COL_TIMESTAMP + " = ? AND " + COL_ID + " < ?))";
+            String timestamp = String.valueOf(after.getTimestamp());
+            args = new String[]{owner, timestamp, timestamp, after.getId()};
+        }
+        List<RecipeHistory> result = new ArrayList<>();
+        try (Cursor cursor = getReadableDatabase().query(TABLE_HISTORY, SUMMARY_COLUMNS,
+                COL_OWNER + " = ? AND " + selection, args,
+                null, null, COL_TIMESTAMP + " DESC, " + COL_ID + " DESC", String.valueOf(limit))) {
+            while (cursor.moveToNext()) {
+                RecipeHistory history = new RecipeHistory();
+                history.setId(cursor.getString(0));
+                history.setRecipeTitle(cursor.getString(1));
+                history.setSummary(cursor.getString(2));
+                history.setTimestamp(cursor.getLong(3));
+                result.add(history);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 本文を含む履歴1件を返す。本文をまだ取得していない（要約のみ同期済みの）場合は null
+     */
+    RecipeHistory queryBody(String owner, String id) {
+        List<RecipeHistory> rows = query(COL_ID + " = ? AND " + COL_CONTENT + " IS NOT NULL",
+                new String[]{owner, id}, null, null);
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+
+    List<RecipeHistory> queryByState(String owner, int syncState) {
+        return query(owner, COL_SYNC_STATE + " = " + syncState, COL_TIMESTAMP + " ASC");
+    }
+
+    private List<RecipeHistory> query(String owner, String stateSelection, String orderBy) {
+        return query(stateSelection, new String[]{owner}, orderBy, null);
+    }
+
+    /**
+     * HISTORY_COLUMNS の全列を読み込む。args の先頭は owner
+     */
+    private List<RecipeHistory> query(String selection, String[] args, String orderBy, String limit) {
+        List<RecipeHistory> result = new ArrayList<>();
+        try (Cursor cursor = getReadableDatabase().query(TABLE_HISTORY, HISTORY_COLUMNS,
+                COL_OWNER + " = ? AND " + selection, args,
+                null, null, orderBy, limit)) {
+            while (cursor.moveToNext()) {
+                RecipeHistory history = new RecipeHistory(
+                        cursor.getString(0),
+                        cursor.getString(1),
+                        cursor.getString(2),
+                        cursor.getString(3),
+                        cursor.getString(4),
+                        cursor.getLong(5));
+                history.setSummary(cursor.getString(6));
+                result.add(history);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 指定した同期状態の行のIDだけを取得する（レシピ本文などは読み込まない）。
+     */
+    List<String> queryIdsByState(String owner, int syncState, int limit) {
+        List<String> ids = new ArrayList<>();
+        try (Cursor cursor = getReadableDatabase().query(TABLE_HISTORY, new String[]{COL_ID},
+                COL_OWNER + " = ? AND " + COL_SYNC_STATE + " = " + syncState, new String[]{owner},
+                null, null, COL_ID + " ASC", String.valueOf(limit))) {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getString(0));
+            }
+        }
+        return ids;
+    }
+
+    int countByState(String owner, int syncState) {
+        return (int) DatabaseUtils.queryNumEntries(getReadableDatabase(), TABLE_HISTORY,
+                COL_OWNER + " = ? AND " + COL_SYNC_STATE + " = " + syncState, new String[]{owner});
+    }
+
+    /**
+     * 検索語を全て含む履歴を、スコア（一致したトークンの重みの合計）の高い順に返す。
+     * 検索語はバイグラムに分割し、索引を引くだけで絞り込むため、本文を読み込んだり LIKE で走査したりはしない。
+     * 返す要素は一覧表示用の項目のみ。
+     */
+    List<RecipeHistory> searchHistory(String owner, String query, int limit) {
+        Set<String> terms = BigramTokenizer.queryTokens(query);
+        List<RecipeHistory> result = new ArrayList<>();
+        if (terms.isEmpty()) {
+            return result;
+        }
+        StringBuilder placeholders = new StringBuilder();
+        String[] args = new String[terms.size() + 1];
+        int i = 0;
+        for (String term : terms) {
+            placeholders.append(i == 0 ? "?" : ", ?");
+            args[i++] = term;
+        }
+        args[i] = owner;
+        String sql = "SELECT h." + COL_ID + ", h." + COL_TITLE + ", h." + COL_SUMMARY + ", h." + COL_TIMESTAMP
+                + ", SUM(t." + COL_WEIGHT + ") AS score"
+                + " FROM " + TABLE_TERMS + " t JOIN " + TABLE_HISTORY + " h ON h.rowid = t." + COL_DOC
+                + " WHERE t." + COL_TERM + " IN (" + placeholders + ")"
+                + " AND h." + COL_OWNER + " = ? AND h." + COL_SYNC_STATE + " != " + STATE_PENDING_DELETE
+                + " GROUP BY t." + COL_DOC
+                // 全てのトークンを含むものだけ（AND 検索）
+                + " HAVING COUNT(*) = " + terms.size()
+                + " ORDER BY score DESC, h." + COL_TIMESTAMP + " DESC"
+                + " LIMIT " + limit;
+        try (Cursor cursor = getReadableDatabase().rawQuery(sql, args)) {
+            while (cursor.moveToNext()) {
+                RecipeHistory history = new RecipeHistory();
+                history.setId(cursor.getString(0));
+                history.setRecipeTitle(cursor.getString(1));
+                history.setSummary(cursor.getString(2));
+                history.setTimestamp(cursor.getLong(3));
+                result.add(history);
+            }
+        }
+        return result;
+    }
+
+    long getLastPulledTimestamp(String owner) {
+        return getMeta(owner, COL_LAST_PULLED);
+    }
+
+    /**
+     * 前回取り込んだ墓標の deletedAt（ミリ秒）。まだ取り込んでいない場合は 0
+     */
+    long getLastPulledDeletedAt(String owner) {
+        return getMeta(owner, COL_LAST_PULLED_DELETED_AT);
+    }
+
+    /**
+     * 未完了の全件削除の要求時刻。要求がない場合は 0
+     */
+    long getClearBeforeTimestamp(String owner) {
+        return getMeta(owner, COL_CLEAR_BEFORE);
+    }
+
+    private long getMeta(String owner, String column) {
+        try (Cursor cursor = getReadableDatabase().query(TABLE_SYNC_META, new String[]{column},
+                COL_OWNER + " = ?", new String[]{owner}, null, null, null)) {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0L;
+        }
+    }
+
+    // --- 書き込み（メインスレッド以外から呼ぶこと） ---
+
+    /**
+     * この端末で生成した履歴を、未送信として追加する。
+     */
+    void insertPending(String owner, List<RecipeHistory> histories) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (RecipeHistory history : histories) {
+                // REPLACE は既存の行を消して rowid を振り直すため、古い rowid の索引を先に消す
+                deleteTerms(db, COL_OWNER + " = ? AND " + COL_ID + " = ?", new String[]{owner, history.getId()});
+                db.insertWithOnConflict(TABLE_HISTORY, null, toValues(owner, history, STATE_PENDING_INSERT),
+                        SQLiteDatabase.CONFLICT_REPLACE);
+                reindex(db, owner, history.getId());
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Firestore から取得した履歴を反映する。ローカルで未送信の変更がある行は上書きしない。
+     * 要約のみのドキュメントの場合、取得済みの本文は残し、一覧用の項目が同じであれば更新しない。
+     *
+     * @param syncState 反映後の同期状態（旧形式のドキュメントを移行する場合は STATE_PENDING_INSERT）
+     * @return 実際に追加・更新された行数
+     */
+    int upsertFromRemote(String owner, List<RecipeHistory> histories, int syncState) {
+        return upsertFromRemote(owner, histories, syncState, null);
+    }
+
+    /**
+     * @param applied 実際に追加・更新された履歴を追加するリスト（不要なら null）
+     */
+    int upsertFromRemote(String owner, List<RecipeHistory> histories, int syncState, List<RecipeHistory> applied) {
+        int changed = 0;
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (RecipeHistory history : histories) {
+                ContentValues values = toValues(owner, history, syncState);
+                String selection = COL_OWNER + " = ? AND " + COL_ID + " = ? AND " + COL_SYNC_STATE + " = " + STATE_SYNCED;
+                String[] args;
+                if (syncState == STATE_SYNCED) {
+                    // 変更の無い通知（キャッシュからの再通知など）では行を書き換えず、画面にも通知しない
+                    // （バインド引数に null は渡せないため、null は空文字として比較する）
+                    selection += " AND (IFNULL(" + COL_TITLE + ", '') != ? OR IFNULL(" + COL_SUMMARY + ", '') != ? OR "
+                            + COL_TIMESTAMP + " != ?)";
+                    args = new String[]{owner, history.getId(), nullToEmpty(history.getRecipeTitle()),
+                            nullToEmpty(history.getSummary()), String.valueOf(history.getTimestamp())};
+                } else {
+                    args = new String[]{owner, history.getId()};
+                }
+                int updated = db.update(TABLE_HISTORY, values, selection, args);
+                if (updated > 0) {
+                    changed += updated;
+                } else if (db.insertWithOnConflict(TABLE_HISTORY, null, values, SQLiteDatabase.CONFLICT_IGNORE) != -1) {
+                    changed++;
+                } else {
+                    continue;
+                }
+                reindex(db, owner, history.getId());
+                if (applied != null) {
+                    applied.add(history);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return changed;
+    }
+
+    /**
+     * 履歴を削除予定にする（一覧からは即座に消え、Firestore からの削除は同期時に行う）。
+     * 未送信の行も、送信中の可能性があるため物理削除はせず、同期エンジンに削除を任せる。
+     */
+    void markDeleted(String owner, String id) {
+        ContentValues values = new ContentValues();
+        values.put(COL_SYNC_STATE, STATE_PENDING_DELETE);
+        getWritableDatabase().update(TABLE_HISTORY, values, COL_OWNER + " = ? AND " + COL_ID + " = ?",
+                new String[]{owner, id});
+    }
+
+    /**
+     * owner の全ての履歴を削除予定にし、まだローカルに取り込んでいないリモートの履歴も
+     * 削除対象となるよう要求時刻を記録する（アプリが途中で終了しても、次回の同期で再開される）。
+     */
+    void markAllDeleted(String owner, long requestedAt) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            values.put(COL_SYNC_STATE, STATE_PENDING_DELETE);
+            db.update(TABLE_HISTORY, values, COL_OWNER + " = ?", new String[]{owner});
+            putMeta(db, owner, COL_CLEAR_BEFORE, requestedAt);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Firestore から取得した本文を保存する
+     */
+    void updateBody(String owner, RecipeHistory body) {
+        ContentValues values = new ContentValues();
+        values.put(COL_INGREDIENTS, body.getIngredientsWithUsage());
+        values.put(COL_CONSTRAINTS, body.getAllConstraints());
+        values.put(COL_CONTENT, body.getRecipeContent());
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            db.update(TABLE_HISTORY, values, COL_OWNER + " = ? AND " + COL_ID + " = ?",
+                    new String[]{owner, body.getId()});
+            // 本文の語も検索できるよう索引を作り直す
+            reindex(db, owner, body.getId());
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * 送信済みの追加を同期済みにする。
+     */
+    void markSynced(String owner, List<String> ids) {
+        ContentValues values = new ContentValues();
+        values.put(COL_SYNC_STATE, STATE_SYNCED);
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (String id : ids) {
+                // 送信中に削除予定になった行は削除予定のまま残す
+                db.update(TABLE_HISTORY, values,
+                        COL_OWNER + " = ? AND " + COL_ID + " = ? AND " + COL_SYNC_STATE + " = " + STATE_PENDING_INSERT,
+                        new String[]{owner, id});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Firestore からの削除が完了した行を物理削除する。
+     */
+    void purge(String owner, List<String> ids) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (String id : ids) {
+                String[] args = {owner, id};
+                deleteTerms(db, COL_OWNER + " = ? AND " + COL_ID + " = ?", args);
+                db.delete(TABLE_HISTORY, COL_OWNER + " = ? AND " + COL_ID + " = ?", args);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * 他の端末で削除された履歴を物理削除する。未送信の変更がある行は残す。
+     *
+     * @return 実際に削除された行のID
+     */
+    List<String> purgeSynced(String owner, List<String> ids) {
+        List<String> removed = new ArrayList<>();
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (String id : ids) {
+                String[] args = {owner, id};
+                String selection = COL_OWNER + " = ? AND " + COL_ID + " = ? AND " + COL_SYNC_STATE + " = " + STATE_SYNCED;
+                deleteTerms(db, selection, args);
+                if (db.delete(TABLE_HISTORY, selection, args) > 0) {
+                    removed.add(id);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return removed;
+    }
+
+    void setLastPulledTimestamp(String owner, long timestamp) {
+        putMeta(getWritableDatabase(), owner, COL_LAST_PULLED, timestamp);
+    }
+
+    void setLastPulledDeletedAt(String owner, long deletedAt) {
+        putMeta(getWritableDatabase(), owner, COL_LAST_PULLED_DELETED_AT, deletedAt);
+    }
+
+    /**
+     * 全件削除が完了したら要求時刻を消す
+     */
+    void clearClearBeforeTimestamp(String owner) {
+        putMeta(getWritableDatabase(), owner, COL_CLEAR_BEFORE, 0L);
+    }
+
+    /**
+     * sync_meta の1列だけを更新する（REPLACE だと他の列が既定値に戻るため、UPDATE → INSERT の順で行う）
+     */
+    private static void putMeta(SQLiteDatabase db, String owner, String column, long value) {
+        ContentValues values = new ContentValues();
+        values.put(column, value);
+        if (db.update(TABLE_SYNC_META, values, COL_OWNER + " = ?", new String[]{owner}) == 0) {
+            values.put(COL_OWNER, owner);
+            db.insert(TABLE_SYNC_META, null, values);
+        }
+    }
+
+    /**
+     * 履歴1件分の索引を、現在の行の内容から作り直す（行が無ければ索引を消すだけ）。
+     * タイトル・材料・条件・本文をそれぞれ重み付けし、同じトークンの重みは合算して1行にまとめる。
+     * 本文を未取得の行は、材料の代わりに要約（材料と条件から作ったもの）を索引に使う。
+     */
+    private static void reindex(SQLiteDatabase db, String owner, String id) {
+        String selection = COL_OWNER + " = ? AND " + COL_ID + " = ?";
+        String[] args = {owner, id};
+        deleteTerms(db, selection, args);
+        try (Cursor cursor = db.query(TABLE_HISTORY, INDEX_COLUMNS, selection, args, null, null, null);
+             SQLiteStatement insert = compileTermInsert(db)) {
+            if (cursor.moveToFirst()) {
+                insertTerms(insert, cursor);
+            }
+        }
+    }
+
+    /**
+     * INDEX_COLUMNS で読み込んだ1行分の索引を登録する
+     */
+    private static void insertTerms(SQLiteStatement insert, Cursor cursor) {
+        Map<String, Integer> weights = new HashMap<>();
+        addWeights(weights, cursor.getString(1), WEIGHT_TITLE);
+        if (cursor.isNull(5)) {
+            addWeights(weights, cursor.getString(2), WEIGHT_INGREDIENTS);
+        } else {
+            addWeights(weights, cursor.getString(3), WEIGHT_INGREDIENTS);
+            addWeights(weights, cursor.getString(4), WEIGHT_OTHER);
+            // 構造化された本文は JSON のキーを索引しないよう、材料と手順のテキストだけを使う
+            addWeights(weights, Recipe.toSearchText(cursor.getString(5)), WEIGHT_OTHER);
+        }
+        long doc = cursor.getLong(0);
+        for (Map.Entry<String, Integer> entry : weights.entrySet()) {
+            insert.bindString(1, entry.getKey());
+            insert.bindLong(2, doc);
+            insert.bindLong(3, entry.getValue());
+            insert.executeInsert();
+        }
+    }
+
+    private static SQLiteStatement compileTermInsert(SQLiteDatabase db) {
+        return db.compileStatement("INSERT INTO " + TABLE_TERMS
+                + " (" + COL_TERM + ", " + COL_DOC + ", " + COL_WEIGHT + ") VALUES (?, ?, ?)");
+    }
+
+    /**
+     * selection に一致する history の行の索引を消す。索引は rowid で行を指すため、行を消す前に呼ぶこと
+     */
+    private static void deleteTerms(SQLiteDatabase db, String selection, String[] args) {
+        db.execSQL("DELETE FROM " + TABLE_TERMS + " WHERE " + COL_DOC + " IN (SELECT rowid FROM "
+                + TABLE_HISTORY + " WHERE " + selection + ")", args);
+    }
+
+    private static void addWeights(Map<String, Integer> weights, String text, int weight) {
+        for (Map.Entry<String, Integer> entry : BigramTokenizer.countTokens(text).entrySet()) {
+            weights.merge(entry.getKey(), entry.getValue() * weight, Integer::sum);
+        }
+    }
+
+    private static String nullToEmpty(String value) {
+        return value != null ? value : "";
+    }
+
+    private static ContentValues toValues(String owner, RecipeHistory history, int syncState) {
+        ContentValues values = new ContentValues();
+        values.put(COL_OWNER, owner);
+        values.put(COL_ID, history.getId());
+        values.put(COL_TITLE, history.getRecipeTitle());
+        values.put(COL_SUMMARY, history.getSummary());
+        values.put(COL_TIMESTAMP, history.getTimestamp());
+        // 本文側の列は、要約だけを取得した場合（null）には更新しない
+        if (history.getRecipeContent() != null) {
+            values.put(COL_INGREDIENTS, history.getIngredientsWithUsage());
+            values.put(COL_CONSTRAINTS, history.getAllConstraints());
+            values.put(COL_CONTENT, history.getRecipeContent());
+        }
+        values.put(COL_SYNC_STATE, syncState);
+        return values;
+    }
+}
@@ -1,6 +1,9 @@
 package com.example.liefantidia2;
 
 import android.content.Context;
+import android.database.sqlite.SQLiteException;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
 import com.google.firebase.auth.FirebaseAuth;
@@ -8,26 +11,119 @@ import com.google.firebase.auth.FirebaseUser;
 import com.google.firebase.firestore.CollectionReference;
 import com.google.firebase.firestore.FirebaseFirestore;
 
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.List;
+import java.util.Locale;
 
 /**
- * レシピ履歴をFirebase Firestoreに保存・管理するユーティリティクラス。
+ * レシピ履歴を保存・管理するユーティリティクラス。
  *
- * Firestoreのパス構造: /artifacts/{appId}/users/{userId}/history/{documentId}
- * このクラスは、このパス構造に従って履歴を保存します。
+ * 履歴の正本は端末内のSQLite（HistoryDatabase）で、読み書きはローカルに対して即座に行います。
+ * Firebase Firestore へは HistorySyncEngine がバックグラウンドで追加・削除を送信し、
+ * 他の端末で追加された履歴を timestamp の差分だけ取り込みます。
+ *
+ * Firestoreのパス構造:
+ *   /artifacts/{appId}/users/{userId}/history/{documentId}        一覧用の要約（タイトル、要約、日時）
+ *   /artifacts/{appId}/users/{userId}/history_bodies/{documentId} 本文（食材、制約、レシピ本文）
+ * このクラスは、このパス構造に従って履歴を保存します。本文は表示する時に初めて取得します。
  */
 public class HistoryManager {
 
     private static final String TAG = "HistoryManager";
 
     private static final String FIRESTORE_PATH_FORMAT = "artifacts/%s/users/%s/history";
+    // レシピ本文は一覧用の要約とは別のコレクションに、同じドキュメントIDで保存する
+    private static final String FIRESTORE_BODY_PATH_FORMAT = "artifacts/%s/users/%s/history_bodies";
+
+    // 一覧に表示する日時の形式。DateTimeFormatter は不変でスレッドセーフなため共有する
+    private static final DateTimeFormatter DISPLAY_DATE_FORMATTER =
+            DateTimeFormatter.ofPattern("yyyy/MM/dd HH:mm", Locale.getDefault());
 
     private final FirebaseFirestore db;
     private final String userId;
     private final String appId;
 
+    private final HistoryDatabase database;
+    private final HistorySyncEngine syncEngine;
+    // 本文を読み込んだ履歴のプロセス内キャッシュ（画面間ではIDだけを受け渡す）
+    private final RecipeStore recipeStore = RecipeStore.getInstance();
+    // Firestoreのコレクションパス（ローカルDB上の所有者キーとしても使用）
+    private final String owner;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private HistorySyncEngine.SyncListener syncListener;
+    private volatile Runnable historyChangedListener;
+    private volatile DeleteProgressListener deleteProgressListener;
+    private volatile HistoryUpdateListener historyUpdateListener;
+
+    /**
+     * ローカルの履歴を1ページ読み込んだ結果（メインスレッドで呼ばれる）
+     */
+    public interface HistoryPageCallback {
+        /**
+         * @param page 読み込んだ履歴（時刻降順）
+         * @param hasMore 続きのページがある場合 true
+         */
+        void onPageLoaded(List<RecipeHistory> page, boolean hasMore);
+    }
+
+    /**
+     * 履歴の検索結果（メインスレッドで呼ばれる）
+     */
+    public interface HistorySearchCallback {
+        /**
+         * @param query 検索した文字列（入力中に結果が前後した場合の判定用）
+         * @param results 一致した履歴（関連度の高い順）
+         */
+        void onSearchResult(String query, List<RecipeHistory> results);
+    }
+
+    /**
+     * 他の端末での変更をリアルタイムに受け取った結果（メインスレッドで呼ばれる）。
+     * ローカルDBへの反映は済んでいるため、一覧には差分だけを適用すればよい
+     */
+    public interface HistoryUpdateListener {
+        /**
+         * @param changed 追加・更新された履歴（一覧用の項目のみ。表示用の日時は設定済み）
+         * @param removedIds 削除された履歴のID
+         */
+        void onHistoryUpdated(List<RecipeHistory> changed, List<String> removedIds);
+    }
+
+    /**
+     * Firestore からの削除の進捗（メインスレッドで呼ばれる）
+     */
+    public interface DeleteProgressListener {
+        /**
+         * @param deleted 削除が完了した件数
+         * @param total 削除対象の件数（deleted == total で完了）
+         */
+        void onDeleteProgress(int deleted, int total);
+    }
+
+    /**
+     * 本文を含む履歴の読み込み結果（メインスレッドで呼ばれる）
+     */
+    public interface HistoryBodyCallback {
+        /**
+         * @param history 本文を含む履歴。取得できなかった場合は null
+         */
+        void onBodyLoaded(RecipeHistory history);
+    }
+
+    /**
+     * ローカルDBへの書き込み結果（メインスレッドで呼ばれる）
+     */
+    public interface HistoryWriteCallback {
+        void onComplete(boolean success);
+    }
+
     /**
      * HistoryManagerを初期化し、FirestoreインスタンスとユーザーIDを設定します。
      * @param context アプリケーションコンテキスト
@@ -41,6 +137,11 @@ public class HistoryManager {
         // ユーザーが認証済みであればUID、そうでなければ匿名ユーザーとして設定
         this.userId = user != null ? user.getUid() : "anonymous_user";
 
+        CollectionReference collection = getHistoryCollection();
+        this.owner = collection.getPath();
+        this.database = HistoryDatabase.getInstance(context);
+        this.syncEngine = HistorySyncEngine.forCollection(database, db, collection, getBodyCollection());
+
         Log.d(TAG, "HistoryManager initialized for App ID: " + appId + ", User ID: " + userId);
     }
 
@@ -69,59 +170,307 @@ public class HistoryManager {
         return db.collection(path);
     }
 
+    private CollectionReference getBodyCollection() {
+        return db.collection(String.format(FIRESTORE_BODY_PATH_FORMAT, appId, userId));
+    }
+
     /**
      * 生成されたレシピを履歴に保存します。
      * @param ingredientsWithUsage 食材と使用に関する制約
      * @param allConstraints その他の詳細な制約
-     * @param recipeContent Geminiによって生成されたレシピ本文
+     * @param recipe Geminiによって生成されたレシピ
      */
-    public void saveRecipe(String ingredientsWithUsage, String allConstraints, String recipeContent) {
-        String recipeTitle = extractTitleFromRecipe(recipeContent);
+    public void saveRecipe(String ingredientsWithUsage, String allConstraints, Recipe recipe) {
+        RecipeHistory history = buildHistory(ingredientsWithUsage, allConstraints, recipe, new Date().getTime());
+        savePending(Collections.singletonList(history));
+    }
 
-        RecipeHistory history = new RecipeHistory();
-        history.setRecipeTitle(recipeTitle);
-        history.setIngredientsWithUsage(ingredientsWithUsage);
-        history.setAllConstraints(allConstraints);
-        history.setRecipeContent(recipeContent);
-        history.setTimestamp(new Date().getTime()); // 現在時刻をミリ秒で保存
+    /**
+     * 同じ条件で生成された複数のレシピ案を、まとめて履歴に保存します。
+     * ローカルDBへは1トランザクションで、Firestore へは同期エンジンが1回のバッチ書き込みで送信します。
+     * @param ingredientsWithUsage 食材と使用に関する制約
+     * @param allConstraints その他の詳細な制約
+     * @param recipes 生成されたレシピ（生成順）
+     */
+    public void saveRecipes(String ingredientsWithUsage, String allConstraints, List<Recipe> recipes) {
+        if (recipes == null || recipes.isEmpty()) {
+            return;
+        }
+        long now = new Date().getTime();
+        List<RecipeHistory> histories = new ArrayList<>(recipes.size());
+        for (int i = 0; i < recipes.size(); i++) {
+            // 履歴画面で生成順に並ぶよう、タイムスタンプを1msずつずらす
+            histories.add(buildHistory(ingredientsWithUsage, allConstraints, recipes.get(i), now - i));
+        }
+        savePending(histories);
+    }
 
-        // Firestoreへの追加処理
-        getHistoryCollection().add(history)
-                .addOnSuccessListener(docRef -> Log.i(TAG, "Recipe saved successfully. Doc ID: " + docRef.getId()))
-                .addOnFailureListener(e -> Log.e(TAG, "Error saving recipe to Firestore", e));
+    /**
+     * ローカルDBに未送信として保存し、同期を要求する。Firestore へは同期エンジンがバッチで送信する。
+     */
+    private void savePending(List<RecipeHistory> histories) {
+        // 生成直後に履歴から開いた場合も、ローカルDBを読まずに表示できるようにする
+        for (RecipeHistory history : histories) {
+            recipeStore.put(history);
+        }
+        database.execute(() -> {
+            database.insertPending(owner, histories);
+            Log.i(TAG, histories.size() + " recipe(s) saved locally.");
+            syncEngine.requestSync();
+        });
     }
 
     /**
-     * レシピ本文からタイトルを抽出します。
-     * 最初の非空行を検索し、Markdownの記号（#や*）を除去します。
-     * @param recipeContent レシピ本文
-     * @return 抽出されたタイトル
+     * ローカルDBから履歴を時刻降順で1ページ分読み込む（通信は行わない）。
+     * @param after 直前に読み込んだページの末尾の要素。先頭ページの場合は null
+     * @param pageSize 1ページの件数
      */
-    private String extractTitleFromRecipe(String recipeContent) {
-        if (recipeContent == null || recipeContent.isEmpty()) {
-            return "無題のレシピ";
+    public void loadHistoryPage(RecipeHistory after, int pageSize, HistoryPageCallback callback) {
+        database.execute(() -> {
+            // 1件多く取得して、続きのページがあるかを判定する
+            List<RecipeHistory> rows = database.queryHistoryPage(owner, after, pageSize + 1);
+            boolean hasMore = rows.size() > pageSize;
+            List<RecipeHistory> page = hasMore ? new ArrayList<>(rows.subList(0, pageSize)) : rows;
+            prepareForDisplay(page);
+            mainHandler.post(() -> callback.onPageLoaded(page, hasMore));
+        });
+    }
+
+    /**
+     * ローカルDBの索引から履歴を検索する（通信は行わない）。
+     * タイトル・食材・条件・本文（取得済みのもの）を対象に、空白で区切った語を全て含む履歴を返す。
+     * @param limit 最大件数
+     */
+    public void searchHistory(String query, int limit, HistorySearchCallback callback) {
+        database.execute(() -> {
+            List<RecipeHistory> results;
+            try {
+                results = database.searchHistory(owner, query, limit);
+            } catch (SQLiteException e) {
+                Log.e(TAG, "Error searching history: " + query, e);
+                results = Collections.emptyList();
+            }
+            prepareForDisplay(results);
+            List<RecipeHistory> found = results;
+            mainHandler.post(() -> callback.onSearchResult(query, found));
+        });
+    }
+
+    /**
+     * 表示用の文字列は読み込み側のスレッドで作成し、バインド時には代入だけで済むようにする
+     */
+    private static void prepareForDisplay(List<RecipeHistory> histories) {
+        ZoneId zone = ZoneId.systemDefault();
+        for (RecipeHistory history : histories) {
+            history.setDisplayDate(formatTimestamp(history.getTimestamp(), zone));
+            if (history.getSummary() == null) {
+                history.setSummary("");
+            }
+        }
+    }
+
+    /**
+     * 一覧から選ばれた履歴の本文を読み込む。メモリ上の RecipeStore、ローカルDBの順に探し、
+     * 無ければ（他の端末で作成された履歴など）Firestore の本文ドキュメントを1件だけ取得して保存する。
+     * 読み込んだ本文は RecipeStore に保持され、他の画面からIDで引ける。
+     */
+    public void loadRecipeBody(RecipeHistory item, HistoryBodyCallback callback) {
+        RecipeHistory cached = recipeStore.get(item.getId());
+        if (cached != null) {
+            mainHandler.post(() -> callback.onBodyLoaded(cached));
+            return;
         }
+        database.execute(() -> {
+            RecipeHistory local = database.queryBody(owner, item.getId());
+            if (local != null) {
+                recipeStore.put(local);
+                mainHandler.post(() -> callback.onBodyLoaded(local));
+                return;
+            }
+            getBodyCollection().document(item.getId()).get()
+                    .addOnSuccessListener(document -> {
+                        if (!document.exists()) {
+                            Log.w(TAG, "Recipe body not found: " + item.getId());
+                            callback.onBodyLoaded(null);
+                            return;
+                        }
+                        String recipeContent;
+                        try {
+                            recipeContent = HistorySyncEngine.readRecipeContent(document);
+                        } catch (IOException e) {
+                            Log.e(TAG, "Error decoding recipe body: " + item.getId(), e);
+                            callback.onBodyLoaded(null);
+                            return;
+                        }
+                        RecipeHistory history = new RecipeHistory(item.getId(), item.getRecipeTitle(),
+                                document.getString("ingredientsWithUsage"), document.getString("allConstraints"),
+                                recipeContent, item.getTimestamp());
+                        history.setSummary(item.getSummary());
+                        database.execute(() -> database.updateBody(owner, history));
+                        recipeStore.put(history);
+                        callback.onBodyLoaded(history);
+                    })
+                    .addOnFailureListener(e -> {
+                        Log.e(TAG, "Error loading recipe body: " + item.getId(), e);
+                        callback.onBodyLoaded(null);
+                    });
+        });
+    }
+
+    /**
+     * 履歴を1件削除する。ローカルからは即座に消え、Firestore からは同期時に削除される
+     * （通信に失敗した場合も削除予定として残り、次回の同期で再送される）。
+     */
+    public void deleteRecipe(String id, HistoryWriteCallback callback) {
+        recipeStore.remove(id);
+        database.execute(() -> {
+            try {
+                database.markDeleted(owner, id);
+            } catch (SQLiteException e) {
+                Log.e(TAG, "Error deleting recipe locally: " + id, e);
+                mainHandler.post(() -> callback.onComplete(false));
+                return;
+            }
+            mainHandler.post(() -> callback.onComplete(true));
+            syncEngine.requestSync();
+        });
+    }
 
-        // 行頭にある#または*、それに続くスペースを無視して最初の非空行を抽出するパターン
-        // ^[#*]?[\\s]*([^\\n]+)
-        Pattern pattern = Pattern.compile("^[#*]?[\\s]*([^\\n]+)", Pattern.MULTILINE);
-        Matcher matcher = pattern.matcher(recipeContent.trim()); // trim()で全体からスペースを除去
-
-        if (matcher.find()) {
-            String title = matcher.group(1).trim();
-            // 抽出された文字列から、行頭のMarkdown記号やスペースを再度除去
-            title = title.replaceAll("^[#*\\s]+", "").trim();
-            
-            // タイトルが空でないことを確認
-            if (title.isEmpty()) {
-                return recipeContent.length() > 10 ? recipeContent.substring(0, 10) + "..." : "無題のレシピ";
+    /**
+     * 全ての履歴を削除する。ローカルからは即座に消え、Firestore からは同期時に削除される。
+     * 削除の要求はローカルDBに記録されるため、途中でアプリが終了しても次回の同期で残りが削除される。
+     * 進捗は setOnDeleteProgressListener で受け取れる。
+     */
+    public void clearHistory(HistoryWriteCallback callback) {
+        recipeStore.clear();
+        database.execute(() -> {
+            try {
+                database.markAllDeleted(owner, new Date().getTime());
+            } catch (SQLiteException e) {
+                Log.e(TAG, "Error clearing history locally.", e);
+                mainHandler.post(() -> callback.onComplete(false));
+                return;
             }
-            
-            // 長すぎるタイトルをクリップ
-            return title.length() > 50 ? title.substring(0, 50) + "..." : title;
+            mainHandler.post(() -> callback.onComplete(true));
+            syncEngine.requestSync();
+        });
+    }
+
+    /**
+     * Firestore との同期を要求する。
+     */
+    public void requestSync() {
+        syncEngine.requestSync();
+    }
+
+    /**
+     * 同期によってリモートの変更がローカルに取り込まれた際の通知先を設定する（メインスレッドで呼ばれる）。
+     * 画面の破棄時には null を設定して解除すること。
+     */
+    public void setOnHistoryChangedListener(Runnable listener) {
+        historyChangedListener = listener;
+        updateSyncListenerRegistration();
+    }
+
+    /**
+     * 他の端末での変更のリアルタイムな通知先を設定する（メインスレッドで呼ばれる）。
+     * 通知は {@link #startRealtimeUpdates()} から {@link #stopRealtimeUpdates()} までの間だけ届く。
+     * 画面の破棄時には null を設定して解除すること。
+     */
+    public void setOnHistoryUpdatedListener(HistoryUpdateListener listener) {
+        historyUpdateListener = listener;
+        updateSyncListenerRegistration();
+    }
+
+    /**
+     * Firestore のスナップショットリスナーを登録する。画面の onStart で呼び、onStop で {@link #stopRealtimeUpdates()} を呼ぶこと
+     */
+    public void startRealtimeUpdates() {
+        syncEngine.startRealtimeUpdates();
+    }
+
+    public void stopRealtimeUpdates() {
+        syncEngine.stopRealtimeUpdates();
+    }
+
+    /**
+     * Firestore への削除の進捗の通知先を設定する（メインスレッドで呼ばれる）。
+     * 画面の破棄時には null を設定して解除すること。
+     */
+    public void setOnDeleteProgressListener(DeleteProgressListener listener) {
+        deleteProgressListener = listener;
+        updateSyncListenerRegistration();
+    }
+
+    /**
+     * 通知先がある間だけ同期エンジンに登録する（エンジンはプロセス全体で共有されるため）
+     */
+    private void updateSyncListenerRegistration() {
+        boolean needed = historyChangedListener != null || deleteProgressListener != null
+                || historyUpdateListener != null;
+        if (needed && syncListener == null) {
+            syncListener = new HistorySyncEngine.SyncListener() {
+                @Override
+                public void onSyncFinished(boolean changed) {
+                    if (changed) {
+                        mainHandler.post(() -> {
+                            Runnable listener = historyChangedListener;
+                            if (listener != null) {
+                                listener.run();
+                            }
+                        });
+                    }
+                }
+
+                @Override
+                public void onRemoteChanges(List<RecipeHistory> changed, List<String> removedIds) {
+                    for (String id : removedIds) {
+                        recipeStore.remove(id);
+                    }
+                    prepareForDisplay(changed);
+                    mainHandler.post(() -> {
+                        HistoryUpdateListener listener = historyUpdateListener;
+                        if (listener != null) {
+                            listener.onHistoryUpdated(changed, removedIds);
+                        }
+                    });
+                }
+
+                @Override
+                public void onDeleteProgress(int deleted, int total) {
+                    mainHandler.post(() -> {
+                        DeleteProgressListener listener = deleteProgressListener;
+                        if (listener != null) {
+                            listener.onDeleteProgress(deleted, total);
+                        }
+                    });
+                }
+            };
+            syncEngine.addListener(syncListener);
+        } else if (!needed && syncListener != null) {
+            syncEngine.removeListener(syncListener);
+            syncListener = null;
         }
+    }
 
-        // パターンマッチに失敗した場合（極端に短いコンテンツなど）
-        return recipeContent.length() > 10 ? recipeContent.substring(0, 10) + "..." : "無題のレシピ";
+    private RecipeHistory buildHistory(String ingredientsWithUsage, String allConstraints, Recipe recipe, long timestamp) {
+        RecipeHistory history = new RecipeHistory();
+        // ドキュメントIDは端末側で採番する（通信なし）。同期の再送時も同じドキュメントに書き込まれる
+        history.setId(getHistoryCollection().document().getId());
+        history.setRecipeTitle(recipe.getTitle());
+        history.setSummary(HistorySummary.build(ingredientsWithUsage, allConstraints));
+        history.setIngredientsWithUsage(ingredientsWithUsage);
+        history.setAllConstraints(allConstraints);
+        // 本文は Recipe の JSON（空白なし）で保存し、表示時にモデルから組み立てる
+        history.setRecipeContent(recipe.toJson());
+        history.setTimestamp(timestamp); // ミリ秒で保存
+        return history;
+    }
+
+    /**
+     * タイムスタンプ (ミリ秒) を一覧表示用に整形します。
+     */
+    static String formatTimestamp(long timestamp, ZoneId zone) {
+        return DISPLAY_DATE_FORMATTER.format(Instant.ofEpochMilli(timestamp).atZone(zone));
     }
 }
\ No newline at end of file
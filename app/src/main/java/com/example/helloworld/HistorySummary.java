@@ -0,0 +1,58 @@
+package com.example.liefantidia2;
+
+/**
+ * 履歴一覧に表示する要約（具材と設定の1行）を組み立てる。
+ *
+ * 保存時に1回だけ作成して要約ドキュメントとローカルDBに保存します。
+ * Android API に依存しないため、benchmark モジュールからもそのまま呼び出して計測できます。
+ */
+final class HistorySummary {
+
+    // 一覧に表示するサマリーの最大文字数
+    static final int MAX_LENGTH = 80;
+
+    private HistorySummary() {
+        // インスタンス化しない
+    }
+
+    /**
+     * 制約情報から一覧表示用の簡潔なサマリー文字列を生成します。
+     */
+    static String build(String ingredients, String constraints) {
+        StringBuilder sb = new StringBuilder();
+
+        // 具材情報
+        if (ingredients != null && !ingredients.isEmpty()) {
+            // " (入力された具材は全て使用してください)" のような指示部分を削除して表示
+            int index = ingredients.indexOf(" (");
+            String displayIngredients = (index > 0) ? ingredients.substring(0, index) : ingredients;
+            sb.append("具材: ").append(displayIngredients);
+        }
+
+        // 制約情報
+        if (constraints != null && !constraints.isEmpty()) {
+            // 主食の分類、難易度、ジャンル、調理時間、食事制限、価格帯などを含む文字列。
+            // 自由指示（最重要指示）は長くなるので省略
+            // （選択された条件が無く、自由指示だけの場合は何も表示しない）
+            int importantIndex = constraints.indexOf("【最重要指示】");
+            String displayConstraints = (importantIndex >= 0) ? constraints.substring(0, importantIndex).trim() : constraints.trim();
+            if (displayConstraints.endsWith(".")) {
+                displayConstraints = displayConstraints.substring(0, displayConstraints.length() - 1);
+            }
+
+            if (!displayConstraints.isEmpty()) {
+                if (sb.length() > 0) {
+                    sb.append(" | ");
+                }
+                sb.append("設定: ").append(displayConstraints);
+            }
+        }
+
+        // 長すぎる場合は省略
+        String summary = sb.toString();
+        if (summary.length() > MAX_LENGTH) {
+            return summary.substring(0, MAX_LENGTH - 3) + "...";
+        }
+        return summary;
+    }
+}
@@ -0,0 +1,619 @@
+package com.example.liefantidia2;
+
+import android.util.Log;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.Blob;
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentChange;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.MetadataChanges;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QueryDocumentSnapshot;
+import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.firestore.Source;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * ローカルの履歴DB（HistoryDatabase）と Firestore の履歴コレクションを同期するエンジン。
+ *
+ * 1回の同期は次の順で行います。
+ * 1. 未送信の追加をバッチで set()（ドキュメントIDは端末側で採番済みのため、再送しても重複しない）
+ *    一覧用の要約ドキュメント（history）と本文ドキュメント（history_bodies）は同じIDで別々に保存する
+ * 2. 削除予定の履歴の要約ドキュメントを墓標（deleted と deletedAt だけのドキュメント）に置き換え、本文は delete()
+ *    （IDだけを読み、最大500件のバッチを並列数を制限して送信）
+ * 3. 全件削除の要求が残っていれば、ローカルに未取り込みのリモートの履歴も同様に削除
+ * 4. 前回取り込んだ最新の timestamp 以降のドキュメントだけをページ単位で取得し、ローカルに反映
+ *    （本文を含む旧形式のドキュメントは、取り込んだ上で要約と本文に分けて書き直す）
+ * 5. 前回取り込んだ最新の deletedAt 以降の墓標を取得し、他の端末で削除された履歴をローカルから消す
+ *
+ * 同期はバックグラウンドの単一スレッドで直列に実行し、実行中に要求された同期は
+ * 終了後に1回だけ追加で実行します。通信に失敗した変更はローカルに残り、次回の同期で再送されます。
+ *
+ * 画面の表示中は {@link #startRealtimeUpdates()} でスナップショットリスナーを登録し、他の端末での
+ * 追加・変更・削除を DocumentChange ごとにローカルへ反映します（変更1件につきドキュメント1件の読み取り）。
+ * 削除は timestamp の範囲外の古い履歴でも届くよう、墓標の deletedAt に対する別のリスナーで受け取ります。
+ */
+final class HistorySyncEngine {
+
+    private static final String TAG = "HistorySyncEngine";
+
+    // Firestore の1バッチあたりの書き込み上限
+    static final int MAX_BATCH_WRITES = 500;
+    // 履歴1件あたりの書き込み数（要約と本文）
+    private static final int WRITES_PER_ENTRY = 2;
+    private static final int ENTRIES_PER_BATCH = MAX_BATCH_WRITES / WRITES_PER_ENTRY;
+    // 要約ドキュメントの形式。旧形式（本文を含む）には存在しない
+    private static final int SCHEMA_VERSION = 2;
+    // 本文ドキュメントのフィールド。圧縮した本文は recipeContentBlob に、形式を bodyFormat に保存する
+    // （bodyFormat が無いドキュメントは非圧縮の recipeContent のみ）
+    static final String FIELD_RECIPE_CONTENT = "recipeContent";
+    static final String FIELD_RECIPE_CONTENT_BLOB = "recipeContentBlob";
+    static final String FIELD_BODY_FORMAT = "bodyFormat";
+    // 墓標のフィールド。墓標には timestamp が無いため、timestamp で絞る取得・リスナー・全件削除の掃除の対象にならない
+    static final String FIELD_DELETED = "deleted";
+    static final String FIELD_DELETED_AT = "deletedAt";
+    // 同時に送信するバッチ数の上限
+    private static final int MAX_PARALLEL_BATCHES = 3;
+    private static final int PULL_PAGE_SIZE = 100;
+    // オフライン時に Firestore のタスクが完了しないまま同期スレッドが止まらないようにする
+    private static final long REMOTE_TIMEOUT_SECONDS = 30;
+
+    private static final ExecutorService syncExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "HistorySyncEngine");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // コレクションパスごとに1つ（複数画面から同期を要求しても重複実行しない）
+    private static final Map<String, HistorySyncEngine> engines = new ConcurrentHashMap<>();
+
+    /**
+     * 同期1回分の完了通知。同期スレッドから呼ばれる。
+     */
+    interface SyncListener {
+        /**
+         * @param changed リモートの変更をローカルに取り込んだ場合 true
+         */
+        void onSyncFinished(boolean changed);
+
+        /**
+         * 削除の送信の進捗。削除が全て完了した時点で deleted == total で呼ばれる。
+         */
+        default void onDeleteProgress(int deleted, int total) {
+            // 必要な場合のみ実装
+        }
+
+        /**
+         * スナップショットリスナーで受け取ったリモートの変更を、ローカルに反映した後に通知する。
+         *
+         * @param changed 追加・更新された履歴（一覧用の項目のみ）
+         * @param removedIds 他の端末で削除された履歴のID
+         */
+        default void onRemoteChanges(List<RecipeHistory> changed, List<String> removedIds) {
+            // 必要な場合のみ実装
+        }
+    }
+
+    private final HistoryDatabase database;
+    private final FirebaseFirestore firestore;
+    private final CollectionReference collection;
+    private final CollectionReference bodies;
+    private final String owner;
+
+    private final AtomicBoolean syncQueued = new AtomicBoolean(false);
+    private final List<SyncListener> listeners = new CopyOnWriteArrayList<>();
+
+    // スナップショットリスナーの登録状態（同期スレッドのみで参照）
+    private int realtimeSubscribers = 0;
+    private ListenerRegistration realtimeRegistration;
+    private ListenerRegistration tombstoneRegistration;
+
+    /**
+     * @param collection 一覧用の要約ドキュメントのコレクション
+     * @param bodies 本文ドキュメントのコレクション（ドキュメントIDは要約と同じ）
+     */
+    static HistorySyncEngine forCollection(HistoryDatabase database, FirebaseFirestore firestore,
+                                           CollectionReference collection, CollectionReference bodies) {
+        return engines.computeIfAbsent(collection.getPath(),
+                path -> new HistorySyncEngine(database, firestore, collection, bodies, path));
+    }
+
+    private HistorySyncEngine(HistoryDatabase database, FirebaseFirestore firestore,
+                              CollectionReference collection, CollectionReference bodies, String owner) {
+        this.database = database;
+        this.firestore = firestore;
+        this.collection = collection;
+        this.bodies = bodies;
+        this.owner = owner;
+    }
+
+    void addListener(SyncListener listener) {
+        listeners.add(listener);
+    }
+
+    void removeListener(SyncListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * 前回取り込んだ時刻以降のドキュメントと墓標に、それぞれスナップショットリスナーを登録する。
+     * 呼び出し元ごとに {@link #stopRealtimeUpdates()} と対にすること（全員が解除した時点でリスナーを外す）。
+     */
+    void startRealtimeUpdates() {
+        syncExecutor.execute(() -> {
+            if (realtimeSubscribers++ > 0) {
+                return;
+            }
+            // 範囲を絞ることで、登録時の初回スナップショットで読み取るのは未取り込みの分だけになる
+            long since = database.getLastPulledTimestamp(owner);
+            // MetadataChanges.EXCLUDE: 送信完了（hasPendingWrites の解除）などメタデータだけの変化では通知されない
+            realtimeRegistration = collection.whereGreaterThanOrEqualTo("timestamp", since)
+                    .addSnapshotListener(syncExecutor, MetadataChanges.EXCLUDE, this::applySnapshot);
+            long deletedSince = database.getLastPulledDeletedAt(owner);
+            tombstoneRegistration = tombstonesSince(deletedSince)
+                    .addSnapshotListener(syncExecutor, MetadataChanges.EXCLUDE, this::applyTombstones);
+            Log.d(TAG, "Realtime history updates started since " + since + ", deletions since " + deletedSince);
+        });
+    }
+
+    void stopRealtimeUpdates() {
+        syncExecutor.execute(() -> {
+            if (realtimeSubscribers == 0 || --realtimeSubscribers > 0) {
+                return;
+            }
+            if (realtimeRegistration != null) {
+                realtimeRegistration.remove();
+                realtimeRegistration = null;
+            }
+            if (tombstoneRegistration != null) {
+                tombstoneRegistration.remove();
+                tombstoneRegistration = null;
+            }
+            Log.d(TAG, "Realtime history updates stopped.");
+        });
+    }
+
+    /**
+     * スナップショットの差分（DocumentChange）だけをローカルDBに反映する。同期スレッドで呼ばれる。
+     */
+    private void applySnapshot(QuerySnapshot snapshot, FirebaseFirestoreException error) {
+        if (error != null) {
+            Log.w(TAG, "Realtime history listener failed: " + error.getMessage());
+            return;
+        }
+        if (snapshot == null || realtimeRegistration == null) {
+            return; // 解除済み
+        }
+        List<DocumentChange> changes = snapshot.getDocumentChanges();
+        if (changes.isEmpty()) {
+            return;
+        }
+        boolean fromCache = snapshot.getMetadata().isFromCache();
+
+        List<RecipeHistory> summaries = new ArrayList<>();
+        List<RecipeHistory> legacy = new ArrayList<>();
+        List<String> removedIds = new ArrayList<>();
+        long newest = 0;
+        for (DocumentChange change : changes) {
+            QueryDocumentSnapshot document = change.getDocument();
+            if (change.getType() == DocumentChange.Type.REMOVED) {
+                // 墓標に置き換えられて timestamp が無くなった場合と、旧バージョンのアプリが delete() した場合に届く。
+                // キャッシュからの通知で消えたものは、サーバーで削除されたとは限らないため反映しない
+                if (!fromCache) {
+                    removedIds.add(document.getId());
+                }
+                continue;
+            }
+            if (document.getMetadata().hasPendingWrites()) {
+                continue; // この端末からの書き込みはローカルDBに反映済み
+            }
+            RecipeHistory history = fromSummaryDocument(document);
+            (isLegacy(history) ? legacy : summaries).add(history);
+            newest = Math.max(newest, history.getTimestamp());
+        }
+
+        List<RecipeHistory> applied = new ArrayList<>();
+        List<String> removed;
+        try {
+            // 内容が同じ通知（キャッシュからの再通知など）は applied に含まれず、画面も更新しない
+            database.upsertFromRemote(owner, summaries, HistoryDatabase.STATE_SYNCED, applied);
+            if (!legacy.isEmpty()) {
+                database.upsertFromRemote(owner, legacy, HistoryDatabase.STATE_PENDING_INSERT, applied);
+                requestSync();
+            }
+            removed = database.purgeSynced(owner, removedIds);
+            if (!fromCache && newest > database.getLastPulledTimestamp(owner)) {
+                database.setLastPulledTimestamp(owner, newest);
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Failed to apply realtime history changes.", e);
+            return;
+        }
+        if (applied.isEmpty() && removed.isEmpty()) {
+            return;
+        }
+        Log.d(TAG, "Realtime changes applied: " + applied.size() + " upserted, " + removed.size() + " removed");
+        for (SyncListener listener : listeners) {
+            listener.onRemoteChanges(applied, removed);
+        }
+    }
+
+    /**
+     * 他の端末が書いた墓標の差分を受け取り、該当する履歴をローカルDBから消す。同期スレッドで呼ばれる。
+     */
+    private void applyTombstones(QuerySnapshot snapshot, FirebaseFirestoreException error) {
+        if (error != null) {
+            Log.w(TAG, "Realtime tombstone listener failed: " + error.getMessage());
+            return;
+        }
+        if (snapshot == null || tombstoneRegistration == null) {
+            return; // 解除済み
+        }
+        boolean fromCache = snapshot.getMetadata().isFromCache();
+
+        List<String> ids = new ArrayList<>();
+        long newest = 0;
+        for (DocumentChange change : snapshot.getDocumentChanges()) {
+            QueryDocumentSnapshot document = change.getDocument();
+            // 墓標が範囲から外れる（REMOVED）ことは削除の取り消しではない。この端末の削除はローカルから消去済み
+            if (change.getType() == DocumentChange.Type.REMOVED || document.getMetadata().hasPendingWrites()) {
+                continue;
+            }
+            ids.add(document.getId());
+            newest = Math.max(newest, deletedAtOf(document));
+        }
+        if (ids.isEmpty()) {
+            return;
+        }
+
+        List<String> removed;
+        try {
+            removed = database.purgeSynced(owner, ids);
+            if (!fromCache && newest > database.getLastPulledDeletedAt(owner)) {
+                database.setLastPulledDeletedAt(owner, newest);
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Failed to apply realtime history deletions.", e);
+            return;
+        }
+        if (removed.isEmpty()) {
+            return;
+        }
+        Log.d(TAG, "Realtime deletions applied: " + removed.size() + " removed");
+        for (SyncListener listener : listeners) {
+            listener.onRemoteChanges(Collections.emptyList(), removed);
+        }
+    }
+
+    /**
+     * 同期を要求する。既に実行待ちの同期がある場合は何もしない。
+     */
+    void requestSync() {
+        if (!syncQueued.compareAndSet(false, true)) {
+            return;
+        }
+        syncExecutor.execute(this::runSync);
+    }
+
+    private void runSync() {
+        // 実行中に要求された変更も取りこぼさないよう、開始時点でフラグを戻す
+        syncQueued.set(false);
+        boolean changed = false;
+        try {
+            pushInserts();
+            pushDeletes();
+            sweepClearedRemote();
+            changed = pullChanges();
+            if (pullDeletions()) {
+                changed = true;
+            }
+            if (database.countByState(owner, HistoryDatabase.STATE_PENDING_INSERT) > 0) {
+                // 旧形式のドキュメントを取り込んだ場合は、要約と本文に分けて書き直す
+                pushInserts();
+            }
+        } catch (ExecutionException | TimeoutException e) {
+            Log.w(TAG, "History sync interrupted, will retry on next sync: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            Log.e(TAG, "History sync failed.", e);
+        }
+        for (SyncListener listener : listeners) {
+            listener.onSyncFinished(changed);
+        }
+    }
+
+    private void pushInserts() throws ExecutionException, InterruptedException, TimeoutException {
+        List<RecipeHistory> pending = database.queryByState(owner, HistoryDatabase.STATE_PENDING_INSERT);
+        for (int start = 0; start < pending.size(); start += ENTRIES_PER_BATCH) {
+            List<RecipeHistory> chunk = pending.subList(start, Math.min(start + ENTRIES_PER_BATCH, pending.size()));
+            WriteBatch batch = firestore.batch();
+            List<String> ids = new ArrayList<>(chunk.size());
+            for (RecipeHistory history : chunk) {
+                // set() は既存のドキュメントを置き換えるため、旧形式の本文フィールドもここで消える
+                batch.set(collection.document(history.getId()), toSummaryFields(history));
+                batch.set(bodies.document(history.getId()), toBodyFields(history));
+                ids.add(history.getId());
+            }
+            await(batch.commit());
+            database.markSynced(owner, ids);
+            Log.d(TAG, "Pushed " + ids.size() + " history entries.");
+        }
+    }
+
+    /**
+     * 削除予定の履歴を Firestore から削除する（要約は墓標に置き換える）。ローカルDBからはIDだけを読み、
+     * 最大 MAX_PARALLEL_BATCHES 個のバッチ（各500書き込みまで）を同時に送信する。
+     * 削除が確定した分からローカルの行を消すため、途中で中断しても次回は残りだけを送信する。
+     */
+    private void pushDeletes() throws ExecutionException, InterruptedException, TimeoutException {
+        int total = database.countByState(owner, HistoryDatabase.STATE_PENDING_DELETE);
+        if (total == 0) {
+            return;
+        }
+        int deleted = 0;
+        notifyDeleteProgress(deleted, total);
+        while (true) {
+            List<String> ids = database.queryIdsByState(owner, HistoryDatabase.STATE_PENDING_DELETE,
+                    ENTRIES_PER_BATCH * MAX_PARALLEL_BATCHES);
+            if (ids.isEmpty()) {
+                break;
+            }
+            commitDeletes(ids);
+            database.purge(owner, ids);
+            deleted += ids.size();
+            notifyDeleteProgress(deleted, Math.max(total, deleted));
+        }
+        Log.d(TAG, "Deleted " + deleted + " history entries remotely.");
+    }
+
+    /**
+     * 全件削除の要求時刻以前のリモートの履歴のうち、ローカルに取り込まれていなかったもの
+     * （他の端末で追加され、まだ同期していない履歴など）を削除する。
+     * Android 版の Firestore SDK はフィールドの射影取得ができないため、ここだけはドキュメント全体を読むが、
+     * ローカルで把握済みの履歴は pushDeletes() で削除済みのため、対象は未同期の分に限られる。
+     */
+    private void sweepClearedRemote() throws ExecutionException, InterruptedException, TimeoutException {
+        long clearBefore = database.getClearBeforeTimestamp(owner);
+        if (clearBefore == 0) {
+            return;
+        }
+        Query query = collection.whereLessThanOrEqualTo("timestamp", clearBefore)
+                .limit(ENTRIES_PER_BATCH * MAX_PARALLEL_BATCHES);
+        int swept = 0;
+        while (true) {
+            QuerySnapshot page = await(query.get(Source.SERVER));
+            if (page.isEmpty()) {
+                break;
+            }
+            List<String> ids = new ArrayList<>(page.size());
+            for (QueryDocumentSnapshot document : page) {
+                ids.add(document.getId());
+            }
+            commitDeletes(ids);
+            swept += ids.size();
+        }
+        database.clearClearBeforeTimestamp(owner);
+        if (swept > 0) {
+            Log.d(TAG, "Swept " + swept + " remote history entries not yet synced locally.");
+        }
+    }
+
+    /**
+     * ids を500書き込みずつのバッチに分け（要約の墓標と本文の削除で1件2書き込み）、全てのバッチを同時に送信して完了を待つ。
+     * 要約は delete() せずに墓標で置き換え、他の端末が {@link #pullDeletions()} とリスナーで削除を受け取れるようにする。
+     */
+    private void commitDeletes(List<String> ids) throws ExecutionException, InterruptedException, TimeoutException {
+        Map<String, Object> tombstone = new HashMap<>();
+        tombstone.put(FIELD_DELETED, true);
+        tombstone.put(FIELD_DELETED_AT, FieldValue.serverTimestamp());
+        List<Task<Void>> commits = new ArrayList<>();
+        for (int start = 0; start < ids.size(); start += ENTRIES_PER_BATCH) {
+            WriteBatch batch = firestore.batch();
+            for (String id : ids.subList(start, Math.min(start + ENTRIES_PER_BATCH, ids.size()))) {
+                // set() はドキュメントを置き換えるため、timestamp などのフィールドは残らない。
+                // 未送信のまま削除した履歴にも墓標を書くが、他の端末では該当する行が無く何も起きない
+                batch.set(collection.document(id), tombstone);
+                batch.delete(bodies.document(id));
+            }
+            commits.add(batch.commit());
+        }
+        await(Tasks.whenAll(commits));
+    }
+
+    private void notifyDeleteProgress(int deleted, int total) {
+        for (SyncListener listener : listeners) {
+            listener.onDeleteProgress(deleted, total);
+        }
+    }
+
+    /**
+     * 前回取り込んだ timestamp 以降の要約ドキュメントを取得してローカルに反映する。
+     * 同じ timestamp のドキュメントを取りこぼさないよう下限は「以上」で取り、重複分は upsert で吸収する。
+     *
+     * @return ローカルに反映した変更があった場合 true
+     */
+    private boolean pullChanges() throws ExecutionException, InterruptedException, TimeoutException {
+        long since = database.getLastPulledTimestamp(owner);
+        Query baseQuery = collection.whereGreaterThanOrEqualTo("timestamp", since)
+                .orderBy("timestamp", Query.Direction.ASCENDING)
+                .limit(PULL_PAGE_SIZE);
+
+        int changed = 0;
+        long newest = since;
+        DocumentSnapshot lastDocument = null;
+        while (true) {
+            Query pageQuery = lastDocument == null ? baseQuery : baseQuery.startAfter(lastDocument);
+            QuerySnapshot page = await(pageQuery.get());
+
+            List<RecipeHistory> summaries = new ArrayList<>(page.size());
+            List<RecipeHistory> legacy = new ArrayList<>();
+            for (QueryDocumentSnapshot document : page) {
+                RecipeHistory history = fromSummaryDocument(document);
+                if (isLegacy(history)) {
+                    // 旧形式（本文を含む）: 取得済みの本文ごと取り込み、未送信として書き直しの対象にする
+                    legacy.add(history);
+                } else {
+                    summaries.add(history);
+                }
+                newest = Math.max(newest, history.getTimestamp());
+                lastDocument = document;
+            }
+            changed += database.upsertFromRemote(owner, summaries, HistoryDatabase.STATE_SYNCED);
+            if (!legacy.isEmpty()) {
+                changed += database.upsertFromRemote(owner, legacy, HistoryDatabase.STATE_PENDING_INSERT);
+            }
+            database.setLastPulledTimestamp(owner, newest);
+
+            if (page.size() < PULL_PAGE_SIZE) {
+                break;
+            }
+        }
+        if (changed > 0) {
+            Log.d(TAG, "Pulled " + changed + " history entries since " + since);
+        }
+        return changed > 0;
+    }
+
+    /**
+     * 前回取り込んだ deletedAt 以降の墓標を取得し、他の端末で削除された履歴をローカルDBから消す。
+     * pullChanges() と同じく下限は「以上」で取り、重複分は purgeSynced() で吸収する。
+     *
+     * @return ローカルの履歴を削除した場合 true
+     */
+    private boolean pullDeletions() throws ExecutionException, InterruptedException, TimeoutException {
+        long since = database.getLastPulledDeletedAt(owner);
+        Query baseQuery = tombstonesSince(since)
+                .orderBy(FIELD_DELETED_AT, Query.Direction.ASCENDING)
+                .limit(PULL_PAGE_SIZE);
+
+        int removed = 0;
+        long newest = since;
+        DocumentSnapshot lastDocument = null;
+        while (true) {
+            Query pageQuery = lastDocument == null ? baseQuery : baseQuery.startAfter(lastDocument);
+            QuerySnapshot page = await(pageQuery.get());
+
+            List<String> ids = new ArrayList<>(page.size());
+            for (QueryDocumentSnapshot document : page) {
+                ids.add(document.getId());
+                newest = Math.max(newest, deletedAtOf(document));
+                lastDocument = document;
+            }
+            removed += database.purgeSynced(owner, ids).size();
+            database.setLastPulledDeletedAt(owner, newest);
+
+            if (page.size() < PULL_PAGE_SIZE) {
+                break;
+            }
+        }
+        if (removed > 0) {
+            Log.d(TAG, "Pulled " + removed + " history deletions since " + since);
+        }
+        return removed > 0;
+    }
+
+    /**
+     * deletedAt が since（ミリ秒）以降の墓標。deletedAt を持つのは墓標だけなので、通常の要約ドキュメントは読まない
+     */
+    private Query tombstonesSince(long since) {
+        return collection.whereGreaterThanOrEqualTo(FIELD_DELETED_AT, new Timestamp(new Date(since)));
+    }
+
+    private static long deletedAtOf(DocumentSnapshot document) {
+        Timestamp deletedAt = document.getTimestamp(FIELD_DELETED_AT);
+        return deletedAt != null ? deletedAt.toDate().getTime() : 0L;
+    }
+
+    private static RecipeHistory fromSummaryDocument(DocumentSnapshot document) {
+        RecipeHistory history = document.toObject(RecipeHistory.class);
+        history.setId(document.getId());
+        if (isLegacy(history)) {
+            history.setSummary(HistorySummary.build(
+                    history.getIngredientsWithUsage(), history.getAllConstraints()));
+            // タイトル欄が無い、または空のまま保存された初期の履歴は本文の見出しから補う
+            String title = history.getRecipeTitle();
+            if (title == null || title.trim().isEmpty()) {
+                history.setRecipeTitle(Recipe.titleOf(history.getRecipeContent()));
+            }
+        }
+        return history;
+    }
+
+    /**
+     * 要約と本文に分ける前の、本文を含む旧形式のドキュメントか（旧形式には schemaVersion が無く 0 になる）
+     */
+    private static boolean isLegacy(RecipeHistory history) {
+        return history.getSchemaVersion() < SCHEMA_VERSION;
+    }
+
+    private static Map<String, Object> toSummaryFields(RecipeHistory history) {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("recipeTitle", history.getRecipeTitle());
+        fields.put("summary", history.getSummary());
+        fields.put("timestamp", history.getTimestamp());
+        fields.put("schemaVersion", SCHEMA_VERSION);
+        return fields;
+    }
+
+    private static Map<String, Object> toBodyFields(RecipeHistory history) {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("ingredientsWithUsage", history.getIngredientsWithUsage());
+        fields.put("allConstraints", history.getAllConstraints());
+        // 本文は一覧を開くたびではなく表示時に読み込まれるが、数KBあるため圧縮して転送量と保存容量を減らす
+        String content = history.getRecipeContent();
+        byte[] compressed = content != null ? RecipeBodyCodec.compress(content) : null;
+        if (compressed != null) {
+            fields.put(FIELD_RECIPE_CONTENT_BLOB, Blob.fromBytes(compressed));
+            fields.put(FIELD_BODY_FORMAT, RecipeBodyCodec.FORMAT_DEFLATE_V1);
+        } else {
+            fields.put(FIELD_RECIPE_CONTENT, content);
+            fields.put(FIELD_BODY_FORMAT, RecipeBodyCodec.FORMAT_PLAIN);
+        }
+        return fields;
+    }
+
+    /**
+     * 本文ドキュメントからレシピ本文を取り出す。圧縮されていれば展開し、旧形式（非圧縮）はそのまま返す。
+     *
+     * @throws IOException 未知の形式、または圧縮データが壊れている場合
+     */
+    static String readRecipeContent(DocumentSnapshot document) throws IOException {
+        Long format = document.getLong(FIELD_BODY_FORMAT);
+        if (format == null || format == RecipeBodyCodec.FORMAT_PLAIN) {
+            return document.getString(FIELD_RECIPE_CONTENT);
+        }
+        Blob blob = document.getBlob(FIELD_RECIPE_CONTENT_BLOB);
+        if (blob == null) {
+            throw new IOException("Missing compressed recipe body: " + document.getId());
+        }
+        return RecipeBodyCodec.decompress(blob.toBytes(), format.intValue());
+    }
+
+    private static <T> T await(Task<T> task) throws ExecutionException, InterruptedException, TimeoutException {
+        return Tasks.await(task, REMOTE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+}
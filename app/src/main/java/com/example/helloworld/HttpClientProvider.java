@@ -0,0 +1,104 @@
+package com.example.liefantidia2;
+
+import android.util.Log;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * プロセス全体で共有する OkHttpClient を提供するクラス。
+ *
+ * Activity の再生成（画面回転など）のたびにクライアントを作り直すと、
+ * コネクションプールも破棄されて毎回 DNS / TCP / TLS の確立からやり直しになるため、
+ * アプリケーションスコープで1つだけ保持します。
+ */
+public final class HttpClientProvider {
+
+    private static final String TAG = "HttpClientProvider";
+
+    // アイドル接続の保持数と保持時間
+    private static final int MAX_IDLE_CONNECTIONS = 4;
+    private static final long KEEP_ALIVE_MINUTES = 5;
+
+    // 同時実行数の上限（Gemini APIは単一ホストのため、ホスト単位の上限が実質的な制限）
+    private static final int MAX_REQUESTS = 16;
+    private static final int MAX_REQUESTS_PER_HOST = 6;
+
+    private static volatile OkHttpClient sharedClient;
+    private static final AtomicBoolean prewarmInProgress = new AtomicBoolean(false);
+
+    private HttpClientProvider() {
+        // インスタンス化しない
+    }
+
+    public static OkHttpClient get() {
+        OkHttpClient client = sharedClient;
+        if (client == null) {
+            synchronized (HttpClientProvider.class) {
+                client = sharedClient;
+                if (client == null) {
+                    client = createClient();
+                    sharedClient = client;
+                }
+            }
+        }
+        return client;
+    }
+
+    private static OkHttpClient createClient() {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(MAX_REQUESTS);
+        dispatcher.setMaxRequestsPerHost(MAX_REQUESTS_PER_HOST);
+
+        return new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+                // HTTP/2 で1本の接続上にリクエストを多重化する
+                .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .connectTimeout(30, TimeUnit.SECONDS)
+                .readTimeout(60, TimeUnit.SECONDS) // レシピ生成は時間がかかる場合があるのでリードタイムアウトを長く
+                .writeTimeout(30, TimeUnit.SECONDS)
+                .build();
+    }
+
+    /**
+     * 指定したホストへの接続をバックグラウンドで事前に確立し、コネクションプールに載せる。
+     * 既に接続がプールにある場合や、事前接続が進行中の場合は何もしない。
+     *
+     * @param url 接続先のURL（レスポンスの内容は使用しない）
+     */
+    public static void prewarm(String url) {
+        OkHttpClient client = get();
+        if (client.connectionPool().connectionCount() > 0 || !prewarmInProgress.compareAndSet(false, true)) {
+            return;
+        }
+
+        Request request = new Request.Builder().url(url).head().build();
+        client.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                prewarmInProgress.set(false);
+                Log.w(TAG, "Connection prewarm failed: " + e.getMessage());
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                // ステータスは問わない。接続はレスポンスを閉じた時点でプールに戻る
+                response.close();
+                prewarmInProgress.set(false);
+                Log.d(TAG, "Connection prewarmed (" + response.protocol() + "), pooled=" + client.connectionPool().connectionCount());
+            }
+        });
+    }
+}
@@ -0,0 +1,152 @@
+package com.example.liefantidia2;
+
+import okhttp3.Call;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 実行中の生成リクエスト1件と、その結果を待っている呼び出し元（GenerationHandle）の集合。
+ *
+ * 同一キーのリクエストは1回だけ送信し、結果を全購読者に配信します（single-flight）。
+ * 購読者が全員キャンセルした場合は Call を中断します。
+ */
+class InFlightGeneration {
+
+    interface OnFinishedListener {
+        void onFinished(InFlightGeneration flight);
+    }
+
+    private final String key;
+    private final OnFinishedListener finishedListener;
+    private final List<GenerationHandle> subscribers = new ArrayList<>();
+
+    // 途中から参加した購読者に再生するため、ストリーミング済みのテキストを保持
+    private final StringBuilder streamedSoFar = new StringBuilder();
+
+    private Call call;
+    private boolean finished;
+    private boolean abandoned;
+
+    InFlightGeneration(String key, OnFinishedListener finishedListener) {
+        this.key = key;
+        this.finishedListener = finishedListener;
+    }
+
+    String getKey() {
+        return key;
+    }
+
+    /**
+     * 購読者を追加する。既に完了・中断済みの場合は false を返す（呼び出し元は新規に送信する）。
+     * ストリーミング済みのテキストはロックを外してから配信し、その間に届いた通知はその後に順に配信する。
+     */
+    boolean addSubscriber(GenerationHandle handle) {
+        String streamed;
+        synchronized (this) {
+            if (finished || abandoned) {
+                return false;
+            }
+            subscribers.add(handle);
+            handle.attach(this);
+            if (streamedSoFar.length() == 0) {
+                return true;
+            }
+            streamed = streamedSoFar.toString();
+            // 登録と同時に保留を始め、以降の publish* が途中経過より先に届かないようにする
+            handle.deferDispatch();
+        }
+        handle.dispatchDeferred(streamed);
+        return true;
+    }
+
+    void removeSubscriber(GenerationHandle handle) {
+        boolean justAbandoned = false;
+        Call toCancel = null;
+        synchronized (this) {
+            subscribers.remove(handle);
+            if (subscribers.isEmpty() && !finished && !abandoned) {
+                abandoned = true;
+                justAbandoned = true;
+                toCancel = call;
+            }
+        }
+        if (!justAbandoned) {
+            return;
+        }
+        finishedListener.onFinished(this);
+        if (toCancel != null) {
+            toCancel.cancel();
+        }
+    }
+
+    /**
+     * 送信する Call を関連付ける。既に全購読者がキャンセルしていれば即座に中断する。
+     */
+    void setCall(Call call) {
+        boolean cancelNow;
+        synchronized (this) {
+            this.call = call;
+            cancelNow = abandoned;
+        }
+        if (cancelNow) {
+            call.cancel();
+        }
+    }
+
+    synchronized boolean hasStreamedText() {
+        return streamedSoFar.length() > 0;
+    }
+
+    synchronized boolean isAbandoned() {
+        return abandoned;
+    }
+
+    private synchronized List<GenerationHandle> snapshot() {
+        return new ArrayList<>(subscribers);
+    }
+
+    // --- 全購読者への配信 ---
+
+    void publishPartial(CharSequence delta) {
+        List<GenerationHandle> targets;
+        synchronized (this) {
+            streamedSoFar.append(delta);
+            targets = new ArrayList<>(subscribers);
+        }
+        for (GenerationHandle handle : targets) {
+            handle.dispatchPartial(delta);
+        }
+    }
+
+    void publishVariants(List<String> variants) {
+        for (GenerationHandle handle : snapshot()) {
+            handle.dispatchVariants(variants);
+        }
+    }
+
+    void publishResult(String result) {
+        for (GenerationHandle handle : snapshot()) {
+            handle.dispatchResult(result);
+        }
+    }
+
+    void publishFailure(String error) {
+        for (GenerationHandle handle : snapshot()) {
+            handle.dispatchFailure(error);
+        }
+    }
+
+    void publishComplete() {
+        List<GenerationHandle> targets;
+        synchronized (this) {
+            finished = true;
+            targets = new ArrayList<>(subscribers);
+            subscribers.clear();
+        }
+        finishedListener.onFinished(this);
+        for (GenerationHandle handle : targets) {
+            handle.dispatchComplete();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.liefantidia2;
+
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+
+/**
+ * リストの末尾に「読み込み中」のフッターを1行だけ表示するアダプタ。
+ * ConcatAdapter で本体のアダプタの後ろに連結して使用する。
+ */
+class LoadingFooterAdapter extends RecyclerView.Adapter<LoadingFooterAdapter.FooterViewHolder> {
+
+    private boolean loading;
+
+    /**
+     * フッターの表示・非表示を切り替える
+     */
+    void setLoading(boolean loading) {
+        if (this.loading == loading) {
+            return;
+        }
+        this.loading = loading;
+        if (loading) {
+            notifyItemInserted(0);
+        } else {
+            notifyItemRemoved(0);
+        }
+    }
+
+    @NonNull
+    @Override
+    public FooterViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext())
+                .inflate(R.layout.list_item_loading_footer, parent, false);
+        return new FooterViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull FooterViewHolder holder, int position) {
+        // 表示内容は固定
+    }
+
+    @Override
+    public int getItemCount() {
+        return loading ? 1 : 0;
+    }
+
+    static class FooterViewHolder extends RecyclerView.ViewHolder {
+        FooterViewHolder(@NonNull View itemView) {
+            super(itemView);
+        }
+    }
+}
@@ -15,18 +15,27 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.core.content.IntentCompat;
 
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
 import com.google.firebase.FirebaseApp;
 // ... 他のFirebase import
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class MainActivity extends AppCompatActivity {
 
     private static final String TAG = "MainActivity";
 
+    // 履歴画面から受け取る、表示するレシピのIDと一覧用の項目（本文は RecipeStore から引く）
+    public static final String EXTRA_HISTORY_ID = "RECIPE_HISTORY_ID";
+    public static final String EXTRA_HISTORY_SUMMARY = "RECIPE_HISTORY_SUMMARY";
+
     // UIコンポーネント
     private EditText ingredientInput;
     private EditText minPriceInput;
@@ -41,12 +50,23 @@ public class MainActivity extends AppCompatActivity {
 
     private ProgressBar loadingIndicator;
 
+    // 複数案の切り替え
+    private static final int VARIANT_COUNT = 3;
+    private View variantPager;
+    private Button prevVariantButton;
+    private Button nextVariantButton;
+    private TextView variantPositionText;
+    private List<Recipe> recipeVariants = Collections.emptyList();
+    private int variantIndex = 0;
+
     // Spinner and Optionals
     private Spinner spinnerDifficulty;
     private Spinner spinnerGenre;
     private Spinner spinnerTime;
     private Spinner spinnerDiet;
     private CheckBox useAllIngredientsCheckbox;
+    private CheckBox bypassCacheCheckbox;
+    private CheckBox variantsCheckbox;
     private Spinner spinnerType;
     private EditText editOptionalDifficulty;
     private EditText editOptionalGenre;
@@ -83,6 +103,8 @@ public class MainActivity extends AppCompatActivity {
         if (generateRecipeButton != null) generateRecipeButton.setOnClickListener(v -> startRecipeGeneration());
         if (cameraButton != null) cameraButton.setOnClickListener(v -> showFeatureNotImplemented());
         if (historyButton != null) historyButton.setOnClickListener(v -> openHistory()); 
+        if (prevVariantButton != null) prevVariantButton.setOnClickListener(v -> showVariant(variantIndex - 1));
+        if (nextVariantButton != null) nextVariantButton.setOnClickListener(v -> showVariant(variantIndex + 1));
 
         // 4. Firebase初期化と認証処理を開始
         try {
@@ -96,7 +118,9 @@ public class MainActivity extends AppCompatActivity {
         }
 
         preferencesHelper = new PreferencesHelper(this);
-        apiClient = new GeminiApiClient();
+        apiClient = GeminiApiClient.getInstance(this);
+        // 認証処理と並行して Gemini API への接続を確立しておく
+        apiClient.prewarmConnection();
 
         // 認証処理を開始
         initializeFirebaseAuth();
@@ -122,6 +146,8 @@ public class MainActivity extends AppCompatActivity {
                     try {
                          historyManager = new HistoryManager(this); 
                          Log.d(TAG, "HistoryManager initialized after auth.");
+                         // プロセスの再生成後、初期化を待っていた履歴の表示を再開する
+                         handleHistoryIntent(getIntent());
                     } catch (Exception e) {
                          Log.e(TAG, "HistoryManager initialization failed.", e);
                     }
@@ -169,6 +195,12 @@ public class MainActivity extends AppCompatActivity {
         spinnerTime = findViewById(R.id.spinner_time);
         spinnerDiet = findViewById(R.id.spinner_diet);
         useAllIngredientsCheckbox = findViewById(R.id.checkbox_use_all_ingredients);
+        bypassCacheCheckbox = findViewById(R.id.checkbox_bypass_cache);
+        variantsCheckbox = findViewById(R.id.checkbox_variants);
+        variantPager = findViewById(R.id.layout_variant_pager);
+        prevVariantButton = findViewById(R.id.button_prev_variant);
+        nextVariantButton = findViewById(R.id.button_next_variant);
+        variantPositionText = findViewById(R.id.text_variant_position);
         spinnerType = findViewById(R.id.spinner_type);
 
         editOptionalDifficulty = findViewById(R.id.edit_optional_difficulty);
@@ -247,31 +279,63 @@ public class MainActivity extends AppCompatActivity {
     }
 
     /**
-     * HistoryActivityから戻ってきたIntentを処理し、UIを更新する
+     * HistoryActivityから戻ってきたIntentを処理し、UIを更新する。
+     * Intent にはIDしか含まれないため、本文はプロセス内の RecipeStore から引き、
+     * プロセスの破棄などでストアに無い場合は一覧用の項目からローカルDBを読み直す。
      */
     private void handleHistoryIntent(Intent intent) {
-        try {
-            RecipeHistory item = (RecipeHistory) intent.getSerializableExtra("RECIPE_HISTORY_ITEM");
-            if (item != null) {
-                // UIコンポーネントのnullチェックは必須
-                if (recipeOutputText != null) {
-                    recipeOutputText.setText(item.getRecipeContent());
-                }
+        String id = intent.getStringExtra(EXTRA_HISTORY_ID);
+        if (id == null) {
+            return;
+        }
+        RecipeHistory cached = RecipeStore.getInstance().get(id);
+        if (cached != null) {
+            clearHistoryExtras(intent);
+            showHistoryItem(cached);
+            return;
+        }
 
-                if (ingredientInput != null) {
-                    // 食材と使用フラグを分離
-                    String ingredients = item.getIngredientsWithUsage().split(" \\(")[0];
-                    ingredientInput.setText(ingredients);
-                }
+        RecipeHistory summary = IntentCompat.getParcelableExtra(intent, EXTRA_HISTORY_SUMMARY, RecipeHistory.class);
+        if (summary == null) {
+            clearHistoryExtras(intent);
+            return;
+        }
+        if (historyManager == null) {
+            // 認証が完了して HistoryManager が初期化された時点で再度処理する
+            return;
+        }
+        clearHistoryExtras(intent);
+        historyManager.loadRecipeBody(summary, history -> {
+            if (history == null) {
+                Toast.makeText(this, "履歴のレシピを読み込めませんでした。", Toast.LENGTH_SHORT).show();
+                return;
+            }
+            showHistoryItem(history);
+        });
+    }
 
-                Toast.makeText(this, "履歴からレシピ「" + item.getRecipeTitle() + "」を再表示しました。", Toast.LENGTH_LONG).show();
+    /**
+     * Intentからデータを削除して、次回Resume/NewIntentで再度読み込まれないようにする
+     */
+    private void clearHistoryExtras(Intent intent) {
+        intent.removeExtra(EXTRA_HISTORY_ID);
+        intent.removeExtra(EXTRA_HISTORY_SUMMARY);
+    }
 
-                // Intentからデータを削除して、次回Resume/NewIntentで再度読み込まれないようにする
-                intent.removeExtra("RECIPE_HISTORY_ITEM");
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "Error handling history intent.", e);
+    private void showHistoryItem(RecipeHistory item) {
+        // UIコンポーネントのnullチェックは必須
+        if (recipeOutputText != null) {
+            // 構造化された本文はモデルから組み立て、旧形式（Markdown）の本文はそのまま装飾して表示する
+            showRecipeText(Recipe.toDisplayText(item.getRecipeContent()));
+        }
+
+        if (ingredientInput != null && item.getIngredientsWithUsage() != null) {
+            // 食材と使用フラグを分離
+            String ingredients = item.getIngredientsWithUsage().split(" \\(")[0];
+            ingredientInput.setText(ingredients);
         }
+
+        Toast.makeText(this, "履歴からレシピ「" + item.getRecipeTitle() + "」を再表示しました。", Toast.LENGTH_LONG).show();
     }
 
 
@@ -294,19 +358,19 @@ public class MainActivity extends AppCompatActivity {
              generateRecipeButton.setEnabled(true);
              if (recipeOutputText.getText().toString().contains("AIが考案中です") || recipeOutputText.getText().toString().contains("APIキーが設定されていません")) {
                  // ロード中にボタンが無効になっていた場合、メッセージを初期化
-                 recipeOutputText.setText(getString(R.string.text_recipe_initial));
+                 showOutputText(getString(R.string.text_recipe_initial));
              }
         } else if (preferencesHelper.hasEncryptedKey()) {
              // 旧版の暗号化キーが残っている場合、削除して警告
              preferencesHelper.deleteAllKeys();
              apiKey = null;
              generateRecipeButton.setEnabled(false);
-             recipeOutputText.setText("APIキーが設定されていません。設定画面から設定してください。(旧キーデータは削除されました)");
+             showOutputText("APIキーが設定されていません。設定画面から設定してください。(旧キーデータは削除されました)");
         } else {
              // キーデータが存在しない場合
              apiKey = null;
              generateRecipeButton.setEnabled(false);
-             recipeOutputText.setText("APIキーが設定されていません。設定画面から設定してください。");
+             showOutputText("APIキーが設定されていません。設定画面から設定してください。");
         }
     }
 
@@ -360,7 +424,7 @@ public class MainActivity extends AppCompatActivity {
         // 価格帯のバリデーションと制約文字列の構築
         String minPriceStr = minPriceInput.getText().toString().trim();
         String maxPriceStr = maxPriceInput.getText().toString().trim();
-        String priceConstraint = "";
+        RecipeConstraints constraints = new RecipeConstraints();
 
         if (!minPriceStr.isEmpty() || !maxPriceStr.isEmpty()) {
             try {
@@ -377,8 +441,7 @@ public class MainActivity extends AppCompatActivity {
                     Toast.makeText(this, R.string.error_invalid_price_range, Toast.LENGTH_LONG).show();
                     return;
                 }
-                String maxDisplay = (max == Integer.MAX_VALUE) ? "制限なし" : max + "円";
-                priceConstraint = String.format("価格帯: %d円〜%s", min, maxDisplay);
+                constraints.setPriceRange(min, max);
 
             } catch (NumberFormatException e) {
                  Toast.makeText(this, R.string.error_invalid_price_format, Toast.LENGTH_LONG).show();
@@ -392,41 +455,77 @@ public class MainActivity extends AppCompatActivity {
         String ingredientUsage = mustUseAll ? " (入力された具材は全て使用してください)" : " (入力された具材は、全て使用しなくても構いません)";
         final String ingredientsWithUsage = ingredients + ingredientUsage;
 
-        // combineConstraintの修正版を使用
-        String difficulty = combineConstraint(spinnerDifficulty.getSelectedItem().toString(), editOptionalDifficulty.getText().toString());
-        String genre = combineConstraint(spinnerGenre.getSelectedItem().toString(), editOptionalGenre.getText().toString());
-        String timeConstraint = combineConstraint(spinnerTime.getSelectedItem().toString(), editOptionalTime.getText().toString());
-        String dietConstraint = combineConstraint(spinnerDiet.getSelectedItem().toString(), editOptionalDiet.getText().toString());
-        String typeConstraint = combineConstraint(spinnerType.getSelectedItem().toString(), editOptionalType.getText().toString());
-
-        StringBuilder allConstraintsBuilder = new StringBuilder();
-
-        allConstraintsBuilder.append(String.format("主食の分類: %s, 難易度: %s, ジャンル: %s, 調理時間: %s, 食事制限: %s",
-            typeConstraint, difficulty, genre, timeConstraint, dietConstraint));
-
-        if (!priceConstraint.isEmpty()) {
-             allConstraintsBuilder.append(", ").append(priceConstraint);
-        }
-
-        String instructions = editInstructions.getText().toString().trim();
-        if (!instructions.isEmpty()) {
-             allConstraintsBuilder.append(". 【最重要指示】: ").append(instructions);
+        // スピナーの項目はラベル付き（「難易度: 初心者 (簡単)」）なので、ラベルの付け直しと「選択なし」の除外は RecipeConstraints が行う
+        constraints.set(RecipeConstraints.Item.TYPE, spinnerType.getSelectedItem().toString(), editOptionalType.getText().toString());
+        constraints.set(RecipeConstraints.Item.DIFFICULTY, spinnerDifficulty.getSelectedItem().toString(), editOptionalDifficulty.getText().toString());
+        constraints.set(RecipeConstraints.Item.GENRE, spinnerGenre.getSelectedItem().toString(), editOptionalGenre.getText().toString());
+        constraints.set(RecipeConstraints.Item.TIME, spinnerTime.getSelectedItem().toString(), editOptionalTime.getText().toString());
+        constraints.set(RecipeConstraints.Item.DIET, spinnerDiet.getSelectedItem().toString(), editOptionalDiet.getText().toString());
+
+        if (constraints.setInstructions(editInstructions.getText().toString())) {
+            // 長すぎる自由指示は送信前に切り詰め、そのことを知らせる（生成は続行する）
+            Toast.makeText(this, getString(R.string.toast_instructions_trimmed, constraints.getInstructions().length()),
+                    Toast.LENGTH_LONG).show();
         }
 
-        final String allConstraints = allConstraintsBuilder.toString();
+        final String allConstraints = constraints.encode();
 
         // --- 3. APIクライアントの呼び出し ---
-        recipeOutputText.setText("レシピをAIが考案中です...");
+        showOutputText("レシピをAIが考案中です...");
         generateRecipeButton.setEnabled(false);
         loadingIndicator.setVisibility(View.VISIBLE);
+        setRecipeVariants(Collections.emptyList());
+
+        // 生成されたレシピ（失敗時・レシピとして読み取れなかった場合はnullのまま）
+        final AtomicReference<Recipe> finalRecipe = new AtomicReference<>();
+        // 複数案モードで生成された全ての案（失敗時・1案のみの場合はnullのまま）
+        final AtomicReference<List<Recipe>> finalVariants = new AtomicReference<>();
+        // キャッシュから返された結果か（以前の生成時に履歴へ保存済みのため、再度は保存しない）
+        final AtomicBoolean fromCache = new AtomicBoolean(false);
+        // ストリーミングの途中経過の表示（解析と装飾はバックグラウンドで行い、最新の結果だけを表示する）
+        final RecipeRenderer.StreamPreview streamPreview = RecipeRenderer.getInstance().startStream(recipeOutputText);
+        // チェック時はキャッシュを使わずに再生成（temperatureが高いため別案が欲しい場合がある）
+        boolean bypassCache = bypassCacheCheckbox != null && bypassCacheCheckbox.isChecked();
+        // チェック時は candidateCount を指定し、1回のリクエストで複数案を生成する
+        boolean variantsMode = variantsCheckbox != null && variantsCheckbox.isChecked();
+
+        GeminiApiClient.RecipeCallback callback = new GeminiApiClient.RecipeCallback() {
 
-        apiClient.generateRecipe(apiKey, ingredientsWithUsage, allConstraints, new GeminiApiClient.RecipeCallback() {
+            @Override
+            public void onCacheHit() {
+                fromCache.set(true);
+            }
+
+            @Override
+            public void onPartial(CharSequence delta) {
+                // 受信済みのJSONを途中まで解析し、読み終えた項目だけを表示する（「考案中」メッセージはそのまま残す）
+                streamPreview.append(delta);
+            }
+
+            @Override
+            public void onVariants(List<String> variants) {
+                List<Recipe> recipes = new ArrayList<>(variants.size());
+                for (String json : variants) {
+                    Recipe recipe = Recipe.fromJson(json);
+                    if (recipe != null) {
+                        recipes.add(recipe);
+                    }
+                }
+                finalVariants.set(recipes);
+                runOnUiThread(() -> setRecipeVariants(recipes));
+            }
 
             @Override
             public void onResult(String result) {
+                // レシピとして読み取れない結果（空のレスポンスなど）はメッセージとして表示し、履歴には保存しない
+                Recipe recipe = Recipe.fromJson(result);
+                finalRecipe.set(recipe);
                 runOnUiThread(() -> {
-                    if (recipeOutputText != null) {
-                        recipeOutputText.setText(result);
+                    if (recipeOutputText == null) return;
+                    if (recipe != null) {
+                        showRecipeText(recipe.toMarkdown());
+                    } else {
+                        showOutputText(result);
                     }
                 });
             }
@@ -438,10 +537,15 @@ public class MainActivity extends AppCompatActivity {
                     if (loadingIndicator != null) loadingIndicator.setVisibility(View.GONE);
                     Toast.makeText(MainActivity.this, "レシピ生成が完了しました！", Toast.LENGTH_SHORT).show();
 
-                    // 履歴の保存
-                    String generatedRecipe = recipeOutputText != null ? recipeOutputText.getText().toString() : "";
-                    if (!generatedRecipe.contains("エラー") && historyManager != null) {
-                         // *** 修正箇所: 3つの引数でsaveRecipeを呼び出す ***
+                    // 履歴の保存（組み立て済みの全文から1回だけ。複数案は1回のバッチ書き込みで）
+                    Recipe generatedRecipe = finalRecipe.getAndSet(null);
+                    List<Recipe> generatedVariants = finalVariants.getAndSet(null);
+                    if (historyManager == null || fromCache.get()) {
+                        return;
+                    }
+                    if (generatedVariants != null && generatedVariants.size() > 1) {
+                         historyManager.saveRecipes(ingredientsWithUsage, allConstraints, generatedVariants);
+                    } else if (generatedRecipe != null) {
                          historyManager.saveRecipe(ingredientsWithUsage, allConstraints, generatedRecipe);
                     }
                 });
@@ -453,55 +557,61 @@ public class MainActivity extends AppCompatActivity {
                     if (generateRecipeButton != null) generateRecipeButton.setEnabled(true);
                     if (loadingIndicator != null) loadingIndicator.setVisibility(View.GONE);
                     if (recipeOutputText != null) {
-                        recipeOutputText.setText("エラーが発生しました:\n" + error);
+                        showOutputText("エラーが発生しました:\n" + error);
                     }
                     Toast.makeText(MainActivity.this, "API呼び出しに失敗: " + error, Toast.LENGTH_LONG).show();
                 });
             }
-        });
+        };
+
+        GenerationHandle handle = variantsMode
+                ? apiClient.generateRecipeVariants(apiKey, ingredientsWithUsage, allConstraints, VARIANT_COUNT, bypassCache, callback)
+                : apiClient.generateRecipeStream(apiKey, ingredientsWithUsage, allConstraints, bypassCache, callback);
+        // Activity破棄時に通信を中断し、コールバック経由でActivityが保持され続けないようにする
+        handle.bindTo(this);
     } // <-- continueRecipeGeneration メソッドの閉じ括弧
 
     /**
-     * レシピ本文からタイトルを抽出するヘルパーメソッド
+     * 複数案の一覧を差し替え、先頭の案を表示する。2案未満の場合は切り替えUIを隠す。
      */
-    private String extractTitle(String recipeContent) {
-        if (recipeContent == null || recipeContent.isEmpty()) {
-            return "無題のレシピ";
+    private void setRecipeVariants(List<Recipe> variants) {
+        recipeVariants = variants;
+        variantIndex = 0;
+        if (variantPager != null) {
+            variantPager.setVisibility(variants.size() > 1 ? View.VISIBLE : View.GONE);
         }
-        // 最初の行をタイトルとして抽出（Markdownの#または単純な最初の行）
-        String[] lines = recipeContent.split("\n");
-        if (lines.length > 0) {
-            String title = lines[0].trim();
-            // Markdownのタイトルマークダウンを削除
-            if (title.startsWith("#")) {
-                title = title.replaceAll("^#+\\s*", "");
-            }
-            if (title.length() > 30) {
-                 return title.substring(0, 30) + "...";
-            }
-            return title.isEmpty() ? "無題のレシピ" : title;
+        if (!variants.isEmpty()) {
+            showVariant(0);
         }
-        return "無題のレシピ";
     }
 
-    /**
-     * スピナーの選択とオプションの自由入力を結合して制約文字列を生成する
-     */
-    private String combineConstraint(String spinnerSelection, String optionalInput) {
-        String input = optionalInput.trim();
-
-        // 1. オプション入力があり、スピナー選択肢が「選択しない」などではない場合
-        if (!input.isEmpty() && !spinnerSelection.contains("選択しない") && !spinnerSelection.contains("指定なし")) {
-            return spinnerSelection + "（" + input + "）";
+    private void showVariant(int index) {
+        if (recipeVariants.isEmpty() || recipeOutputText == null) {
+            return;
         }
-
-        // 2. スピナー選択肢が「選択しない」などで、オプション入力のみがある場合
-        if (!input.isEmpty()) {
-            return input;
+        variantIndex = Math.max(0, Math.min(index, recipeVariants.size() - 1));
+        showRecipeText(recipeVariants.get(variantIndex).toMarkdown());
+        if (variantPositionText != null) {
+            variantPositionText.setText(getString(R.string.text_variant_position, variantIndex + 1, recipeVariants.size()));
         }
+        if (prevVariantButton != null) prevVariantButton.setEnabled(variantIndex > 0);
+        if (nextVariantButton != null) nextVariantButton.setEnabled(variantIndex < recipeVariants.size() - 1);
+    }
 
-        // 3. オプション入力がない場合
-        return spinnerSelection;
-    } // <-- combineConstraint メソッドの閉じ括弧
+    /**
+     * レシピ本文（Markdown）を装飾して表示する。変換とレイアウト計算はバックグラウンドで行い、
+     * 一度表示した本文（履歴から開き直したレシピなど）はキャッシュから即座に表示される。
+     */
+    private void showRecipeText(String markdown) {
+        RecipeRenderer.getInstance().render(recipeOutputText, markdown);
+    }
+
+    /**
+     * メッセージなどをそのまま表示する。変換中のレシピがあれば、後から上書きされないよう取り消す
+     */
+    private void showOutputText(CharSequence text) {
+        RecipeRenderer.getInstance().cancel(recipeOutputText);
+        recipeOutputText.setText(text);
+    }
 
 } // <-- MainActivity クラスの閉じ括弧
\ No newline at end of file
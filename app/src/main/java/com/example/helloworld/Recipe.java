@@ -0,0 +1,372 @@
+package com.example.liefantidia2;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Gemini API が responseSchema に従って返すレシピ（JSON）の型付きモデル。
+ *
+ * JSON の形式:
+ *   {"title":"...","minutes":20,"ingredients":[{"name":"...","amount":"..."}],"steps":["...", ...]}
+ * 履歴にはこの JSON（空白なし）をそのまま保存し、表示用のテキストはモデルから組み立てます。
+ * Markdown 形式で保存されていた以前の履歴は本文をそのまま表示し、検索の索引やタイトルには
+ * RecipeMarkdownParser で取り出した材料・手順を使います。
+ */
+final class Recipe {
+
+    static final String UNTITLED = "無題のレシピ";
+
+    private String title;
+    // 調理時間（分）。不明な場合は -1
+    private int minutes = -1;
+    private final List<Ingredient> ingredients = new ArrayList<>();
+    private final List<String> steps = new ArrayList<>();
+
+    /**
+     * 材料1件（名前と分量）
+     */
+    static final class Ingredient {
+        final String name;
+        final String amount;
+
+        Ingredient(String name, String amount) {
+            this.name = name;
+            this.amount = amount;
+        }
+    }
+
+    Recipe() {
+        // 空のレシピ（ストリーミング中の解析結果など）
+    }
+
+    /**
+     * レシピ JSON を解析する。JSON として不完全・不正な場合（旧形式の Markdown を含む）は null
+     */
+    static Recipe fromJson(String json) {
+        if (!looksLikeJson(json)) {
+            return null;
+        }
+        Recipe recipe = new Recipe();
+        try {
+            JsonReader reader = new JsonReader(new StringReader(json));
+            recipe.read(reader);
+            if (reader.peek() != JsonToken.END_DOCUMENT) {
+                return null;
+            }
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            return null;
+        }
+        return recipe;
+    }
+
+    /**
+     * ストリーミング中の途中までの JSON を解析し、読み終えた項目だけを含むレシピを返す。
+     * 書きかけの文字列（手順の途中など）は含めず、次のチャンクを受信した時点で反映される。
+     */
+    static Recipe parsePartial(CharSequence json) {
+        Recipe recipe = new Recipe();
+        if (json == null || !looksLikeJson(json.toString())) {
+            return recipe;
+        }
+        try {
+            recipe.read(new JsonReader(new StringReader(json.toString())));
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            // 途中で終わっている箇所までを返す
+        }
+        return recipe;
+    }
+
+    /**
+     * API が返した各候補のテキストを解析し、保存用の JSON（空白なし）に揃える。解析できない候補や空のレシピは除く
+     */
+    static List<String> toCompactJson(List<String> texts) {
+        List<String> recipes = new ArrayList<>(texts.size());
+        for (String text : texts) {
+            Recipe recipe = fromJson(text);
+            if (recipe != null && !recipe.isEmpty()) {
+                recipes.add(recipe.toJson());
+            }
+        }
+        return recipes;
+    }
+
+    /**
+     * 旧形式（Markdown）の本文を解析する。材料・手順の見出しが見つからない場合は null
+     */
+    static Recipe fromMarkdown(String markdown) {
+        if (markdown == null) {
+            return null;
+        }
+        RecipeMarkdownParser.Outline outline = RecipeMarkdownParser.parse(markdown);
+        if (!outline.hasIngredients() && !outline.hasSteps()) {
+            return null;
+        }
+        Recipe recipe = new Recipe();
+        if (outline.hasTitle()) {
+            recipe.title = markdown.substring(outline.titleStart, outline.titleEnd);
+        }
+        if (outline.hasIngredients()) {
+            RecipeMarkdownParser.forEachItem(markdown, outline.ingredientsStart, outline.ingredientsEnd,
+                    (start, end) -> recipe.ingredients.add(parseIngredient(markdown, start, end)));
+        }
+        if (outline.hasSteps()) {
+            RecipeMarkdownParser.forEachItem(markdown, outline.stepsStart, outline.stepsEnd,
+                    (start, end) -> recipe.steps.add(stripEmphasis(markdown.substring(start, end))));
+        }
+        return recipe;
+    }
+
+    /**
+     * 保存された本文からタイトルを取り出す（タイトルが保存されていない旧形式の履歴用）
+     */
+    static String titleOf(String content) {
+        Recipe recipe = fromJson(content);
+        if (recipe != null) {
+            return recipe.getTitle();
+        }
+        if (content == null) {
+            return UNTITLED;
+        }
+        RecipeMarkdownParser.Outline outline = RecipeMarkdownParser.parse(content);
+        return outline.hasTitle()
+                ? stripEmphasis(content.substring(outline.titleStart, outline.titleEnd)) : UNTITLED;
+    }
+
+    /**
+     * 保存された本文を表示用のテキストにする。旧形式（Markdown）の本文はそのまま返す
+     */
+    static String toDisplayText(String content) {
+        Recipe recipe = fromJson(content);
+        return recipe != null ? recipe.toMarkdown() : content;
+    }
+
+    /**
+     * 保存された本文から、全文検索の索引に使うテキストを返す（JSON のキーや記号を索引しないため）
+     */
+    static String toSearchText(String content) {
+        Recipe recipe = fromJson(content);
+        if (recipe == null) {
+            recipe = fromMarkdown(content);
+        }
+        if (recipe == null) {
+            return content;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Ingredient ingredient : recipe.ingredients) {
+            sb.append(ingredient.name).append(' ').append(ingredient.amount).append('\n');
+        }
+        for (String step : recipe.steps) {
+            sb.append(step).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 「鶏もも肉: 200g」「鶏もも肉 200g」を名前と分量に分ける。区切りが無ければ全体を名前にする
+     */
+    private static Ingredient parseIngredient(String text, int start, int end) {
+        int separator = -1;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c == ':' || c == '：') {
+                separator = i;
+                break;
+            }
+        }
+        if (separator < 0) {
+            // 最後の空白で区切る（名前に空白を含む「塩 こしょう 少々」でも分量は最後の語になる）
+            for (int i = end - 1; i > start; i--) {
+                char c = text.charAt(i);
+                if (c == ' ' || c == '　' || c == '\t') {
+                    separator = i;
+                    break;
+                }
+            }
+        }
+        if (separator < 0) {
+            return new Ingredient(stripEmphasis(text.substring(start, end)), "");
+        }
+        return new Ingredient(stripEmphasis(text.substring(start, separator)),
+                stripEmphasis(text.substring(separator + 1, end)));
+    }
+
+    private static String stripEmphasis(String text) {
+        return text.replace("**", "").trim();
+    }
+
+    // 本文全体をコピーしないよう、trim() を使わずに先頭の空白だけを読み飛ばす
+    private static boolean looksLikeJson(String text) {
+        if (text == null) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (!Character.isWhitespace(c)) {
+                return c == '{';
+            }
+        }
+        return false;
+    }
+
+    private void read(JsonReader reader) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "title":
+                    title = nextStringOrNull(reader);
+                    break;
+                case "minutes":
+                    minutes = reader.nextInt();
+                    break;
+                case "ingredients":
+                    readIngredients(reader);
+                    break;
+                case "steps":
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        String step = nextStringOrNull(reader);
+                        if (step != null) {
+                            steps.add(step);
+                        }
+                    }
+                    reader.endArray();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private void readIngredients(JsonReader reader) throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            String name = null;
+            String amount = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "name":
+                        name = nextStringOrNull(reader);
+                        break;
+                    case "amount":
+                        amount = nextStringOrNull(reader);
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+            // 閉じ括弧まで読めた材料だけを追加する
+            if (name != null) {
+                ingredients.add(new Ingredient(name, amount != null ? amount : ""));
+            }
+        }
+        reader.endArray();
+    }
+
+    private static String nextStringOrNull(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+
+    /**
+     * 保存用の JSON（空白なし）に変換する
+     */
+    String toJson() {
+        StringWriter out = new StringWriter();
+        try (JsonWriter writer = new JsonWriter(out)) {
+            writer.beginObject();
+            writer.name("title").value(getTitle());
+            if (minutes >= 0) {
+                writer.name("minutes").value(minutes);
+            }
+            writer.name("ingredients").beginArray();
+            for (Ingredient ingredient : ingredients) {
+                writer.beginObject()
+                        .name("name").value(ingredient.name)
+                        .name("amount").value(ingredient.amount)
+                        .endObject();
+            }
+            writer.endArray();
+            writer.name("steps").beginArray();
+            for (String step : steps) {
+                writer.value(step);
+            }
+            writer.endArray();
+            writer.endObject();
+        } catch (IOException e) {
+            // StringWriter への書き込みでは発生しない
+            throw new IllegalStateException(e);
+        }
+        return out.toString();
+    }
+
+    /**
+     * 表示用のテキスト（以前の Markdown 形式の本文と同じ構成）に変換する。
+     * ストリーミング中は読み終えた項目までを出力する。
+     */
+    String toMarkdown() {
+        StringBuilder sb = new StringBuilder();
+        if (title != null) {
+            sb.append("# ").append(title).append("\n\n");
+        }
+        if (minutes >= 0) {
+            sb.append("調理時間: 約").append(minutes).append("分\n\n");
+        }
+        if (!ingredients.isEmpty()) {
+            sb.append("## 材料\n");
+            for (Ingredient ingredient : ingredients) {
+                sb.append("- ").append(ingredient.name);
+                if (!ingredient.amount.isEmpty()) {
+                    sb.append(": ").append(ingredient.amount);
+                }
+                sb.append('\n');
+            }
+            sb.append('\n');
+        }
+        if (!steps.isEmpty()) {
+            sb.append("## 手順\n");
+            for (int i = 0; i < steps.size(); i++) {
+                sb.append(i + 1).append(". ").append(steps.get(i)).append('\n');
+            }
+        }
+        return sb.toString().trim();
+    }
+
+    // --- Getter ---
+
+    String getTitle() {
+        return title == null || title.trim().isEmpty() ? UNTITLED : title.trim();
+    }
+
+    int getMinutes() {
+        return minutes;
+    }
+
+    List<Ingredient> getIngredients() {
+        return Collections.unmodifiableList(ingredients);
+    }
+
+    List<String> getSteps() {
+        return Collections.unmodifiableList(steps);
+    }
+
+    /**
+     * 材料も手順も無い場合（生成に失敗した、またはストリーミングの受信前）
+     */
+    boolean isEmpty() {
+        return ingredients.isEmpty() && steps.isEmpty();
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.liefantidia2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Firestore に保存するレシピ本文の圧縮・展開。
+ *
+ * 本文は数KBの日本語テキスト（Recipe の JSON、または旧形式の Markdown）で、UTF-8 では1文字3バイトになります。
+ * 短い入力では deflate の辞書が育つ前に終わってしまうため、レシピに頻出する語句とJSONのキーを
+ * 事前辞書（preset dictionary）として与え、先頭から後方参照できるようにしています。
+ *
+ * 形式は本文ドキュメントの bodyFormat フィールドに保存します。辞書を変更する場合は
+ * 既存のドキュメントを展開できなくなるため、必ず新しい形式番号を追加すること。
+ */
+final class RecipeBodyCodec {
+
+    // 非圧縮（bodyFormat フィールドが無い旧ドキュメントも含む）
+    static final int FORMAT_PLAIN = 0;
+    // raw deflate + 事前辞書 v1
+    static final int FORMAT_DEFLATE_V1 = 1;
+
+    // これより短い本文は、圧縮しても Blob のオーバーヘッドに見合わないため圧縮しない
+    static final int MIN_COMPRESS_BYTES = 256;
+
+    // deflate は距離が近いほど短い符号になるため、頻出する語句ほど末尾に置く
+    private static final byte[] DICTIONARY_V1 = (
+            "フライパンに鍋に耐熱容器に電子レンジで600Wで分加熱する。オーブントースターで"
+            + "にんじん玉ねぎじゃがいもキャベツ長ねぎしいたけ豆腐豚バラ肉豚こま切れ肉鶏もも肉鶏むね肉ひき肉卵ご飯"
+            + "薄力粉片栗粉バターマヨネーズケチャップみそだし水カップ"
+            + "塩こしょうしょうゆ醤油みりん砂糖酒サラダ油ごま油オリーブオイルにんにく生姜しょうが"
+            + "適量少々お好みで個本枚片g ml 小さじ1/2小さじ1大さじ1大さじ2"
+            + "一口大に切る。食べやすい大きさに切り、薄切りにする。みじん切りにする。"
+            + "を入れて中火で炒める。弱火で煮込む。火が通ったら加えて全体を混ぜ合わせる。器に盛り付けて完成です。"
+            + "# \n\n調理時間: 約分\n\n## 材料\n- : \n## 手順\n1. 2. 3. 4. 5. "
+            + "{\"title\":\"\",\"minutes\":,\"ingredients\":[{\"name\":\"\",\"amount\":\"\"},"
+            + "{\"name\":\"\",\"amount\":\"\"}],\"steps\":[\"\",\"")
+            .getBytes(StandardCharsets.UTF_8);
+
+    private RecipeBodyCodec() {
+        // インスタンス化しない
+    }
+
+    /**
+     * 本文を圧縮する。圧縮しても小さくならない場合は null（非圧縮で保存すること）
+     */
+    static byte[] compress(String text) {
+        byte[] input = text.getBytes(StandardCharsets.UTF_8);
+        if (input.length < MIN_COMPRESS_BYTES) {
+            return null;
+        }
+        // 保存は1回で読み込みは何度も行われるため、圧縮率を優先する
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        try {
+            deflater.setDictionary(DICTIONARY_V1);
+            deflater.setInput(input);
+            deflater.finish();
+            byte[] buffer = new byte[input.length];
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == buffer.length) {
+                    return null; // 元より大きくなる
+                }
+                length += deflater.deflate(buffer, length, buffer.length - length);
+            }
+            byte[] output = new byte[length];
+            System.arraycopy(buffer, 0, output, 0, length);
+            return output;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * {@link #compress} で圧縮した本文を展開する
+     *
+     * @param format 本文ドキュメントの bodyFormat
+     * @throws IOException 未知の形式、またはデータが壊れている場合
+     */
+    static String decompress(byte[] data, int format) throws IOException {
+        if (format != FORMAT_DEFLATE_V1) {
+            throw new IOException("Unsupported body format: " + format);
+        }
+        Inflater inflater = new Inflater(true);
+        try {
+            // raw deflate にはヘッダーが無く辞書の要求も通知されないため、先に設定しておく
+            inflater.setDictionary(DICTIONARY_V1);
+            inflater.setInput(data);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+            byte[] buffer = new byte[4096];
+            while (!inflater.finished()) {
+                int length = inflater.inflate(buffer);
+                if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Truncated recipe body");
+                }
+                out.write(buffer, 0, length);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupted recipe body", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package com.example.liefantidia2;
+
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 同一条件のレシピ生成結果を再利用するための2段キャッシュ。
+ *
+ * 1段目: サイズ上限付きのメモリLRU
+ * 2段目: アプリのキャッシュディレクトリ配下のファイル（合計サイズ上限を超えると古い順に削除）
+ * どちらのエントリも有効期限（TTL）を持ち、期限切れは読み出し時に破棄します。
+ */
+public class RecipeCache {
+
+    private static final String TAG = "RecipeCache";
+
+    public static final int DEFAULT_MEMORY_MAX_BYTES = 1024 * 1024; // 1MB
+    public static final long DEFAULT_DISK_MAX_BYTES = 5L * 1024 * 1024; // 5MB
+    public static final long DEFAULT_TTL_MILLIS = 24L * 60 * 60 * 1000; // 24時間
+
+    private static final String FILE_SUFFIX = ".txt";
+
+    public interface LookupCallback {
+        /** キャッシュに無い、または期限切れの場合は null */
+        void onLookup(String cached);
+    }
+
+    private final LruCache<String, Entry> memoryCache;
+    private final File diskDir;
+    private final long diskMaxBytes;
+    private final long ttlMillis;
+
+    // ディスクI/Oは呼び出し元（UIスレッド）から切り離して直列に実行
+    private final ExecutorService diskExecutor = Executors.newSingleThreadExecutor();
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public RecipeCache(File diskDir) {
+        this(diskDir, DEFAULT_MEMORY_MAX_BYTES, DEFAULT_DISK_MAX_BYTES, DEFAULT_TTL_MILLIS);
+    }
+
+    public RecipeCache(File diskDir, int memoryMaxBytes, long diskMaxBytes, long ttlMillis) {
+        this.diskDir = diskDir;
+        this.diskMaxBytes = diskMaxBytes;
+        this.ttlMillis = ttlMillis;
+        this.memoryCache = new LruCache<String, Entry>(memoryMaxBytes) {
+            @Override
+            protected int sizeOf(String key, Entry entry) {
+                // Javaの文字列は1文字2バイトとして概算
+                return entry.value.length() * 2;
+            }
+        };
+    }
+
+    /**
+     * モデル名・generationConfig・プロンプトから安定したキャッシュキー（SHA-256）を生成する。
+     */
+    public static String keyFor(String model, String generationConfig, String prompt) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(model.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(generationConfig.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(prompt.getBytes(StandardCharsets.UTF_8));
+
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 は全端末で利用可能なため通常は到達しない
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * メモリ → ディスクの順に検索し、結果をバックグラウンドスレッドで通知する。
+     * メモリにヒットした場合は呼び出しスレッドで即座に通知する。
+     */
+    public void getAsync(String key, LookupCallback callback) {
+        Entry entry = memoryCache.get(key);
+        if (entry != null) {
+            if (!entry.isExpired()) {
+                memoryHits.incrementAndGet();
+                Log.d(TAG, "Memory hit. " + getStatsSummary());
+                callback.onLookup(entry.value);
+                return;
+            }
+            memoryCache.remove(key);
+        }
+
+        diskExecutor.execute(() -> callback.onLookup(readFromDisk(key)));
+    }
+
+    /**
+     * 結果をメモリとディスクの両方に保存する。ディスクへの書き込みは非同期。
+     */
+    public void put(String key, String value) {
+        Entry entry = new Entry(value, System.currentTimeMillis() + ttlMillis);
+        memoryCache.put(key, entry);
+        diskExecutor.execute(() -> writeToDisk(key, entry));
+    }
+
+    /**
+     * ディスクI/O用のスレッドを終了する（書き込み待ちの分は実行してから終了）。以降は使用できない。
+     */
+    void shutdown() {
+        diskExecutor.shutdown();
+    }
+
+    public long getMemoryHitCount() {
+        return memoryHits.get();
+    }
+
+    public long getDiskHitCount() {
+        return diskHits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public String getStatsSummary() {
+        return "memoryHits=" + memoryHits.get() + ", diskHits=" + diskHits.get() + ", misses=" + misses.get();
+    }
+
+    // --- ディスク層 ---
+
+    private String readFromDisk(String key) {
+        File file = new File(diskDir, key + FILE_SUFFIX);
+        if (!file.exists()) {
+            misses.incrementAndGet();
+            Log.d(TAG, "Miss. " + getStatsSummary());
+            return null;
+        }
+
+        try {
+            String stored = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+            // 1行目: 有効期限(ms), 2行目以降: 本文
+            int newline = stored.indexOf('\n');
+            long expiresAt = Long.parseLong(stored.substring(0, newline));
+            Entry entry = new Entry(stored.substring(newline + 1), expiresAt);
+
+            if (entry.isExpired()) {
+                file.delete();
+                misses.incrementAndGet();
+                Log.d(TAG, "Expired on disk. " + getStatsSummary());
+                return null;
+            }
+
+            // LRU順を保つため最終アクセス時刻を更新し、メモリにも昇格
+            file.setLastModified(System.currentTimeMillis());
+            memoryCache.put(key, entry);
+            diskHits.incrementAndGet();
+            Log.d(TAG, "Disk hit. " + getStatsSummary());
+            return entry.value;
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Error reading cache file: " + e.getMessage());
+            file.delete();
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    private void writeToDisk(String key, Entry entry) {
+        if (!diskDir.exists() && !diskDir.mkdirs()) {
+            Log.e(TAG, "Failed to create cache directory: " + diskDir);
+            return;
+        }
+
+        File target = new File(diskDir, key + FILE_SUFFIX);
+        File temp = new File(diskDir, key + ".tmp");
+        try {
+            byte[] bytes = (entry.expiresAt + "\n" + entry.value).getBytes(StandardCharsets.UTF_8);
+            Files.write(temp.toPath(), bytes);
+            if (!temp.renameTo(target)) {
+                throw new IOException("rename failed");
+            }
+            trimDisk();
+        } catch (IOException e) {
+            Log.e(TAG, "Error writing cache file: " + e.getMessage());
+            temp.delete();
+        }
+    }
+
+    /**
+     * ディスク層の合計サイズが上限を超えていれば、最終アクセスが古い順に削除する。
+     */
+    private void trimDisk() {
+        File[] files = diskDir.listFiles((dir, name) -> name.endsWith(FILE_SUFFIX));
+        if (files == null) {
+            return;
+        }
+
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= diskMaxBytes) {
+            return;
+        }
+
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            if (total <= diskMaxBytes) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                total -= length;
+            }
+        }
+    }
+
+    private static class Entry {
+        final String value;
+        final long expiresAt;
+
+        Entry(String value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired() {
+            return System.currentTimeMillis() > expiresAt;
+        }
+    }
+}
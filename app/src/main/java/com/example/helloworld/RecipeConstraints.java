@@ -0,0 +1,155 @@
+package com.example.liefantidia2;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * 画面で選択されたレシピの条件を、プロンプトと履歴に保存する1行の文字列（allConstraints）にまとめる。
+ *
+ * スピナーの項目は「難易度: 初心者 (簡単)」のようにラベル付きなので、ラベルを取り除いて {@link Item} のラベルを1回だけ付けます。
+ * 「選択なし」「特になし」などの既定値は条件として送らず、選ばれた項目だけを
+ * 「主食: ご飯類, 難易度: 初心者 (簡単), 価格帯: 300円〜800円. 【最重要指示】: …」の形で出力します。
+ * Android API に依存しないため、benchmark モジュールからもそのまま呼び出して計測できます。
+ */
+final class RecipeConstraints {
+
+    /**
+     * 画面の条件項目。出力はこの順に並ぶ
+     */
+    enum Item {
+        TYPE("主食"),
+        DIFFICULTY("難易度"),
+        GENRE("ジャンル"),
+        TIME("調理時間"),
+        DIET("食事制限");
+
+        final String label;
+
+        Item(String label) {
+            this.label = label;
+        }
+    }
+
+    // 自由指示の前に付ける目印（HistorySummary はこの目印より前だけを一覧に表示する）
+    static final String INSTRUCTIONS_MARKER = "【最重要指示】: ";
+
+    // 条件を指定していないことを表すスピナーの値（ラベルを除いた部分）
+    private static final String[] DEFAULT_VALUES = {"選択なし", "特になし", "なし", "選択しない", "指定なし"};
+
+    // スピナーのラベル（「主食の分類:」など）とみなす最大の文字数
+    private static final int MAX_LABEL_LENGTH = 8;
+
+    private final Map<Item, String> values = new EnumMap<>(Item.class);
+    private String price;
+    private String instructions;
+    private boolean instructionsTrimmed;
+
+    /**
+     * スピナーの選択と、その項目の自由入力を設定する。どちらも未指定の場合は条件から外す
+     */
+    void set(Item item, String spinnerSelection, String optionalInput) {
+        String selection = isDefault(spinnerSelection) ? "" : stripLabel(spinnerSelection);
+        String input = optionalInput != null ? optionalInput.trim() : "";
+        String value;
+        if (!selection.isEmpty() && !input.isEmpty()) {
+            value = selection + "（" + input + "）";
+        } else if (!input.isEmpty()) {
+            value = input;
+        } else {
+            value = selection;
+        }
+
+        if (value.isEmpty()) {
+            values.remove(item);
+        } else {
+            values.put(item, value);
+        }
+    }
+
+    /**
+     * 価格帯（円）を設定する。max が Integer.MAX_VALUE の場合は上限なし
+     */
+    void setPriceRange(int min, int max) {
+        if (max == Integer.MAX_VALUE) {
+            price = min + "円〜";
+        } else if (min <= 0) {
+            price = "〜" + max + "円";
+        } else {
+            price = min + "円〜" + max + "円";
+        }
+    }
+
+    /**
+     * 自由指示を設定する。{@link RecipePrompt#INSTRUCTION_TOKEN_BUDGET} の見積もりを超える場合は切り詰める
+     *
+     * @return 切り詰めた場合 true（呼び出し元でユーザーに知らせる）
+     */
+    boolean setInstructions(String text) {
+        String trimmed = text != null ? text.trim() : "";
+        instructions = RecipePrompt.trimToTokens(trimmed, RecipePrompt.INSTRUCTION_TOKEN_BUDGET);
+        instructionsTrimmed = instructions.length() < trimmed.length();
+        return instructionsTrimmed;
+    }
+
+    String getInstructions() {
+        return instructions;
+    }
+
+    boolean isInstructionsTrimmed() {
+        return instructionsTrimmed;
+    }
+
+    /**
+     * 選ばれた条件だけを1行にまとめる。何も選ばれていない場合は空文字列
+     */
+    String encode() {
+        StringBuilder sb = new StringBuilder(64);
+        for (Map.Entry<Item, String> entry : values.entrySet()) {
+            appendSeparator(sb).append(entry.getKey().label).append(": ").append(entry.getValue());
+        }
+        if (price != null) {
+            appendSeparator(sb).append("価格帯: ").append(price);
+        }
+        if (instructions != null && !instructions.isEmpty()) {
+            if (sb.length() > 0) {
+                sb.append(". ");
+            }
+            sb.append(INSTRUCTIONS_MARKER).append(instructions);
+        }
+        return sb.toString();
+    }
+
+    private static StringBuilder appendSeparator(StringBuilder sb) {
+        return sb.length() > 0 ? sb.append(", ") : sb;
+    }
+
+    private static boolean isDefault(String spinnerSelection) {
+        if (spinnerSelection == null) {
+            return true;
+        }
+        String value = stripLabel(spinnerSelection);
+        if (value.isEmpty()) {
+            return true;
+        }
+        for (String defaultValue : DEFAULT_VALUES) {
+            if (value.equals(defaultValue)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 「難易度: 初心者 (簡単)」の「難易度: 」を取り除く。ラベルが無ければ前後の空白だけを除く
+     */
+    private static String stripLabel(String spinnerSelection) {
+        int limit = Math.min(spinnerSelection.length(), MAX_LABEL_LENGTH + 1);
+        for (int i = 0; i < limit; i++) {
+            char c = spinnerSelection.charAt(i);
+            if (c == ':' || c == '：') {
+                return spinnerSelection.substring(i + 1).trim();
+            }
+        }
+        return spinnerSelection.trim();
+    }
+}
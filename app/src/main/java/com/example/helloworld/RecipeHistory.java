@@ -1,12 +1,27 @@
 package com.example.liefantidia2;
 
-import java.io.Serializable;
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import com.google.firebase.firestore.Exclude;
 
 /**
  * レシピ履歴をFirestoreまたはローカルに保存するためのデータモデル。
- * インテント経由での受け渡しのためSerializableを実装。
+ * 画面間ではIDと一覧用の項目だけを受け渡す（{@link #toSummary()}）ため、Parcelableを実装。
  */
-public class RecipeHistory implements Serializable {
+public class RecipeHistory implements Parcelable {
+
+    public static final Creator<RecipeHistory> CREATOR = new Creator<RecipeHistory>() {
+        @Override
+        public RecipeHistory createFromParcel(Parcel in) {
+            return new RecipeHistory(in);
+        }
+
+        @Override
+        public RecipeHistory[] newArray(int size) {
+            return new RecipeHistory[size];
+        }
+    };
 
     // FirestoreのドキュメントIDとして使用
     private String id;
@@ -14,15 +29,24 @@ public class RecipeHistory implements Serializable {
     // UI表示用
     private String recipeTitle; 
 
+    // 一覧表示用に保存時に作成する、具材と設定の要約（最大80文字）
+    private String summary;
+
     // レシピ生成時に使用したプロンプトの情報
     private String ingredientsWithUsage;
     private String allConstraints;
 
-    // AIからのレスポンス（レシピ本文）
+    // AIからのレスポンス（レシピ本文）。一覧の読み込み時は null で、表示時に読み込む
     private String recipeContent;
 
     // 生成日時 (UI表示およびソート用)
     private long timestamp;
+
+    // Firestore の要約ドキュメントの形式（HistorySyncEngine.SCHEMA_VERSION）。本文を含む旧形式のドキュメントには無く 0 になる
+    private int schemaVersion;
+
+    // 一覧表示用に整形済みの日時（読み込み時に作成。保存はしない）
+    private String displayDate;
     
     // Firestoreでの保存を容易にするための空のコンストラクタ
     public RecipeHistory() {
@@ -38,8 +62,49 @@ public class RecipeHistory implements Serializable {
         this.timestamp = timestamp;
     }
 
+    private RecipeHistory(Parcel in) {
+        id = in.readString();
+        recipeTitle = in.readString();
+        summary = in.readString();
+        ingredientsWithUsage = in.readString();
+        allConstraints = in.readString();
+        recipeContent = in.readString();
+        timestamp = in.readLong();
+    }
+
+    /**
+     * 一覧用の項目（ID、タイトル、要約、日時）だけを持つコピーを返す。
+     * Intent に本文を載せないよう、画面間の受け渡しにはこちらを使う
+     */
+    public RecipeHistory toSummary() {
+        RecipeHistory summaryOnly = new RecipeHistory();
+        summaryOnly.id = id;
+        summaryOnly.recipeTitle = recipeTitle;
+        summaryOnly.summary = summary;
+        summaryOnly.timestamp = timestamp;
+        return summaryOnly;
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeString(id);
+        dest.writeString(recipeTitle);
+        dest.writeString(summary);
+        dest.writeString(ingredientsWithUsage);
+        dest.writeString(allConstraints);
+        dest.writeString(recipeContent);
+        dest.writeLong(timestamp);
+    }
+
     // --- Getter and Setter ---
 
+    // IDはドキュメントIDそのものなので、ドキュメントのフィールドとしては保存しない
+    @Exclude
     public String getId() {
         return id;
     }
@@ -56,6 +121,14 @@ public class RecipeHistory implements Serializable {
         this.recipeTitle = recipeTitle;
     }
 
+    public String getSummary() {
+        return summary;
+    }
+
+    public void setSummary(String summary) {
+        this.summary = summary;
+    }
+
     public String getIngredientsWithUsage() {
         return ingredientsWithUsage;
     }
@@ -87,4 +160,21 @@ public class RecipeHistory implements Serializable {
     public void setTimestamp(long timestamp) {
         this.timestamp = timestamp;
     }
+
+    public int getSchemaVersion() {
+        return schemaVersion;
+    }
+
+    public void setSchemaVersion(int schemaVersion) {
+        this.schemaVersion = schemaVersion;
+    }
+
+    @Exclude
+    public String getDisplayDate() {
+        return displayDate;
+    }
+
+    public void setDisplayDate(String displayDate) {
+        this.displayDate = displayDate;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,338 @@
+package com.example.liefantidia2;
+
+/**
+ * レシピの Markdown テキストを1回だけ走査し、タイトル・材料・手順の位置（オフセット）を返すパーサー。
+ *
+ * 文字列の切り出しや正規表現を使わず、CharSequence の添字だけで判定するため、
+ * 走査中のアロケーションは結果の {@link Outline} 1つだけです。必要な部分だけを呼び出し元で切り出してください。
+ *
+ * 対象とする書式（Recipe.toMarkdown の出力と、構造化出力に移行する前の Gemini の出力）:
+ *   # タイトル / **タイトル** / レシピ名: タイトル
+ *   ## 材料（2人分） / **材料:**      … 次の同じ以上のレベルの見出しまでが材料
+ *   ## 手順 / ## 作り方               … 同じく手順
+ *   - 項目 / * 項目 / ・項目 / 1. 項目 … {@link #forEachItem} で記号を除いた範囲を返す
+ */
+final class RecipeMarkdownParser {
+
+    // 太字だけの行（**材料**）を見出しとして扱う場合のレベル（# 見出しより弱い）
+    static final int BOLD_HEADING_LEVEL = 7;
+
+    private static final int SECTION_NONE = 0;
+    private static final int SECTION_INGREDIENTS = 1;
+    private static final int SECTION_STEPS = 2;
+    private static final int SECTION_OTHER = 3;
+
+    private static final String RECIPE_NAME_LABEL = "レシピ名";
+
+    private RecipeMarkdownParser() {
+        // インスタンス化しない
+    }
+
+    /**
+     * 解析結果。各範囲は [start, end) で、見つからなかった場合は start = end = -1
+     */
+    static final class Outline {
+        int titleStart = -1;
+        int titleEnd = -1;
+        // 見出しの次の行から、セクション内の最後の非空行の末尾まで
+        int ingredientsStart = -1;
+        int ingredientsEnd = -1;
+        int stepsStart = -1;
+        int stepsEnd = -1;
+
+        boolean hasTitle() {
+            return titleStart >= 0;
+        }
+
+        boolean hasIngredients() {
+            return ingredientsStart >= 0;
+        }
+
+        boolean hasSteps() {
+            return stepsStart >= 0;
+        }
+    }
+
+    /**
+     * セクション内の項目1件の範囲（リスト記号・前後の空白を除く）を受け取る
+     */
+    interface ItemVisitor {
+        void onItem(int start, int end);
+    }
+
+    static Outline parse(CharSequence text) {
+        Outline outline = new Outline();
+        int length = text.length();
+
+        int section = SECTION_NONE;
+        int sectionLevel = 0;
+        int sectionContentEnd = -1;
+        // 「レシピ名」だけの見出しの次の行をタイトルにする
+        boolean titleOnNextLine = false;
+
+        int lineStart = 0;
+        while (lineStart < length) {
+            int lineEnd = lineEnd(text, lineStart);
+            int start = skipWhitespace(text, lineStart, lineEnd);
+            int end = trimEnd(text, start, lineEnd);
+            if (start < end) {
+                int level = headingLevel(text, start, end);
+                if (level > 0 && (section == SECTION_NONE || level <= sectionLevel)) {
+                    // 見出し: 現在のセクションを閉じ、次のセクションを判定する
+                    closeSection(outline, section, sectionContentEnd);
+                    int textStart = headingTextStart(text, start, end, level);
+                    int textEnd = headingTextEnd(text, textStart, end);
+                    int kind = sectionKind(text, textStart, textEnd);
+                    int bodyStart = Math.min(lineEnd + 1, length);
+                    section = SECTION_OTHER;
+                    sectionLevel = level;
+                    sectionContentEnd = bodyStart;
+                    if (kind == SECTION_INGREDIENTS && !outline.hasIngredients()) {
+                        section = SECTION_INGREDIENTS;
+                        outline.ingredientsStart = bodyStart;
+                    } else if (kind == SECTION_STEPS && !outline.hasSteps()) {
+                        section = SECTION_STEPS;
+                        outline.stepsStart = bodyStart;
+                    } else if (!outline.hasTitle() && kind == SECTION_NONE) {
+                        if (startsWith(text, textStart, textEnd, RECIPE_NAME_LABEL)) {
+                            int labelEnd = skipLabelSeparator(text, textStart + RECIPE_NAME_LABEL.length(), textEnd);
+                            if (labelEnd < textEnd) {
+                                setTitle(outline, labelEnd, textEnd);
+                            } else {
+                                titleOnNextLine = true;
+                            }
+                        } else {
+                            setTitle(outline, textStart, textEnd);
+                        }
+                        // タイトルの見出しの下は、材料・手順の見出しが現れるまでどのセクションにも属さない
+                        section = SECTION_NONE;
+                    }
+                } else if (!outline.hasTitle() && (section == SECTION_NONE || titleOnNextLine)) {
+                    // 見出しの無いレシピは、最初の非空行（「レシピ名:」などのラベルは除く）をタイトルにする
+                    int textStart = skipListMarker(text, start, end);
+                    if (startsWith(text, textStart, end, RECIPE_NAME_LABEL)) {
+                        textStart = skipLabelSeparator(text, textStart + RECIPE_NAME_LABEL.length(), end);
+                    }
+                    textStart = skipMarkup(text, textStart, end);
+                    int textEnd = headingTextEnd(text, textStart, end);
+                    if (textStart < textEnd) {
+                        setTitle(outline, textStart, textEnd);
+                        titleOnNextLine = false;
+                    }
+                } else {
+                    sectionContentEnd = end;
+                }
+            }
+            lineStart = lineEnd + 1;
+        }
+        closeSection(outline, section, sectionContentEnd);
+        return outline;
+    }
+
+    /**
+     * [start, end) の各行を項目として通知する。空行と見出し行は除き、リスト記号（-, *, +, ・, 1. など）を取り除く。
+     */
+    static void forEachItem(CharSequence text, int start, int end, ItemVisitor visitor) {
+        int lineStart = start;
+        while (lineStart < end) {
+            int lineEnd = Math.min(lineEnd(text, lineStart), end);
+            int itemStart = skipWhitespace(text, lineStart, lineEnd);
+            int itemEnd = trimEnd(text, itemStart, lineEnd);
+            if (itemStart < itemEnd && headingLevel(text, itemStart, itemEnd) == 0) {
+                itemStart = skipListMarker(text, itemStart, itemEnd);
+                if (itemStart < itemEnd) {
+                    visitor.onItem(itemStart, itemEnd);
+                }
+            }
+            lineStart = lineEnd + 1;
+        }
+    }
+
+    /**
+     * 行 [start, end)（前後の空白除去済み）の見出しレベル。# の数、太字だけの行は {@link #BOLD_HEADING_LEVEL}、見出しでなければ 0
+     */
+    static int headingLevel(CharSequence text, int start, int end) {
+        int hashes = 0;
+        while (start + hashes < end && text.charAt(start + hashes) == '#') {
+            hashes++;
+        }
+        if (hashes > 0) {
+            // "#タイトル" のように空白が無いものも見出しとして扱う（ただし # だけの行は除く）
+            return hashes <= 6 && start + hashes < end ? hashes : 0;
+        }
+        if (end - start > 4 && text.charAt(start) == '*' && text.charAt(start + 1) == '*'
+                && text.charAt(end - 1) == '*' && text.charAt(end - 2) == '*') {
+            // 行の途中に ** がある場合（**鶏肉**: 200g）は見出しではない
+            for (int i = start + 2; i < end - 2; i++) {
+                if (text.charAt(i) == '*') {
+                    return 0;
+                }
+            }
+            return BOLD_HEADING_LEVEL;
+        }
+        return 0;
+    }
+
+    /**
+     * 見出しの記号（# や **）を除いた本文の開始位置
+     */
+    static int headingTextStart(CharSequence text, int start, int end, int level) {
+        int i = start;
+        if (level == BOLD_HEADING_LEVEL) {
+            i += 2;
+        } else {
+            while (i < end && text.charAt(i) == '#') {
+                i++;
+            }
+        }
+        return skipMarkup(text, i, end);
+    }
+
+    /**
+     * リスト記号（-, *, +, ・, 1., 1), ①）と続く空白を除いた位置。記号が無ければ start
+     */
+    static int skipListMarker(CharSequence text, int start, int end) {
+        if (start >= end) {
+            return start;
+        }
+        char c = text.charAt(start);
+        if ((c == '-' || c == '*' || c == '+') && start + 1 < end && isWhitespace(text.charAt(start + 1))) {
+            return skipWhitespace(text, start + 1, end);
+        }
+        if (c == '・' || c == '•' || (c >= '①' && c <= '⑳')) {
+            return skipWhitespace(text, start + 1, end);
+        }
+        int i = start;
+        while (i < end && isDigit(text.charAt(i))) {
+            i++;
+        }
+        if (i > start && i < end) {
+            char marker = text.charAt(i);
+            if (marker == '.' || marker == ')' || marker == '．' || marker == '）' || marker == '、') {
+                return skipWhitespace(text, i + 1, end);
+            }
+        }
+        return start;
+    }
+
+    private static void setTitle(Outline outline, int start, int end) {
+        if (start < end) {
+            outline.titleStart = start;
+            outline.titleEnd = end;
+        }
+    }
+
+    private static void closeSection(Outline outline, int section, int contentEnd) {
+        if (section == SECTION_INGREDIENTS) {
+            outline.ingredientsEnd = Math.max(outline.ingredientsStart, contentEnd);
+        } else if (section == SECTION_STEPS) {
+            outline.stepsEnd = Math.max(outline.stepsStart, contentEnd);
+        }
+    }
+
+    private static int sectionKind(CharSequence text, int start, int end) {
+        if (contains(text, start, end, "材料")) {
+            return SECTION_INGREDIENTS;
+        }
+        if (contains(text, start, end, "手順") || contains(text, start, end, "作り方")) {
+            return SECTION_STEPS;
+        }
+        return SECTION_NONE;
+    }
+
+    /**
+     * 見出し本文の末尾から、閉じの ** と「:」「：」を除いた位置
+     */
+    static int headingTextEnd(CharSequence text, int start, int end) {
+        int i = end;
+        while (i > start) {
+            char c = text.charAt(i - 1);
+            if (c == '*' || c == ':' || c == '：' || c == '#' || isWhitespace(c)) {
+                i--;
+            } else {
+                break;
+            }
+        }
+        return i;
+    }
+
+    /**
+     * 行頭の ** と空白を飛ばす
+     */
+    private static int skipMarkup(CharSequence text, int start, int end) {
+        int i = start;
+        while (i < end && (text.charAt(i) == '*' || isWhitespace(text.charAt(i)))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int skipLabelSeparator(CharSequence text, int start, int end) {
+        int i = start;
+        while (i < end) {
+            char c = text.charAt(i);
+            if (c == ':' || c == '：' || c == '*' || isWhitespace(c)) {
+                i++;
+            } else {
+                break;
+            }
+        }
+        return i;
+    }
+
+    private static int lineEnd(CharSequence text, int from) {
+        int length = text.length();
+        for (int i = from; i < length; i++) {
+            if (text.charAt(i) == '\n') {
+                return i;
+            }
+        }
+        return length;
+    }
+
+    private static int skipWhitespace(CharSequence text, int start, int end) {
+        int i = start;
+        while (i < end && isWhitespace(text.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int trimEnd(CharSequence text, int start, int end) {
+        int i = end;
+        while (i > start && isWhitespace(text.charAt(i - 1))) {
+            i--;
+        }
+        return i;
+    }
+
+    private static boolean startsWith(CharSequence text, int start, int end, String prefix) {
+        if (end - start < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (text.charAt(start + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean contains(CharSequence text, int start, int end, String word) {
+        for (int i = start; i + word.length() <= end; i++) {
+            if (startsWith(text, i, end, word)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // 全角スペースと \r（CRLF の行末）も空白として扱う
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\r' || c == '　';
+    }
+
+    private static boolean isDigit(char c) {
+        return (c >= '0' && c <= '9') || (c >= '０' && c <= '９');
+    }
+}
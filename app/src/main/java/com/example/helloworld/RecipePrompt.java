@@ -0,0 +1,193 @@
+package com.example.liefantidia2;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * レシピ生成のプロンプトを組み立てる。
+ *
+ * テンプレートはクラスの読み込み時に1回だけ固定文と差し込み位置（{@link Slot}）に分解しておき、
+ * リクエストごとには StringBuilder へ順に追加するだけにします（String.format の書式解析を毎回行わない）。
+ * Android API に依存しないため、benchmark モジュールからもそのまま呼び出して計測できます。
+ */
+final class RecipePrompt {
+
+    /**
+     * 自由指示（【最重要指示】）に使うトークン数の上限の目安。超えた分は {@link #trimToTokens} で切り詰める
+     */
+    static final int INSTRUCTION_TOKEN_BUDGET = 300;
+
+    /**
+     * プロンプト全体のトークン数の目安。超えた場合は送信前にログで警告する
+     */
+    static final int PROMPT_TOKEN_BUDGET = 1000;
+
+    /**
+     * テンプレートの差し込み位置。テンプレート中では {名前} と書く
+     */
+    enum Slot {
+        INGREDIENTS("ingredients"),
+        CONSTRAINTS("constraints");
+
+        final String placeholder;
+
+        Slot(String name) {
+            this.placeholder = "{" + name + "}";
+        }
+    }
+
+    private static final Template TEMPLATE = Template.compile(
+            "以下の情報に基づいて、実用的で美味しいレシピを日本語で提案してください。\n" +
+            "レシピ名（30文字以内）、調理時間（分）、材料と分量、手順を、指定のJSON形式で返してください。\n" +
+            "---情報---\n" +
+            "利用食材: {ingredients}\n" +
+            "全ての制約: {constraints}\n" +
+            "---レシピ要件---\n" +
+            "上記の「全ての制約」を最大限満たすようにしてください。特に【最重要指示】がある場合はそれを最優先してください。\n");
+
+    private static final int SLOT_COUNT = Slot.values().length;
+
+    // 制約が何も選ばれていない場合に差し込む値
+    private static final String NO_CONSTRAINTS = "なし";
+
+    private RecipePrompt() {
+        // インスタンス化しない
+    }
+
+    static String build(String ingredientsWithUsage, String allConstraints) {
+        String[] values = new String[SLOT_COUNT];
+        values[Slot.INGREDIENTS.ordinal()] = ingredientsWithUsage;
+        values[Slot.CONSTRAINTS.ordinal()] = allConstraints == null || allConstraints.isEmpty() ? NO_CONSTRAINTS : allConstraints;
+        return TEMPLATE.render(values);
+    }
+
+    /**
+     * 送信前にプロンプトのトークン数を見積もる（Gemini の実際のトークナイザーとは一致しない概算）。
+     *
+     * 日本語などの ASCII 以外の文字は1文字1トークン、ASCII の連続は4文字で1トークンとして数えるため、
+     * 日本語が中心のプロンプトでは実際よりやや多めになります。
+     */
+    static int estimateTokens(CharSequence text) {
+        if (text == null) {
+            return 0;
+        }
+        int tokens = 0;
+        int asciiRun = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) < 0x80) {
+                asciiRun++;
+            } else {
+                tokens += (asciiRun + 3) / 4 + 1;
+                asciiRun = 0;
+            }
+        }
+        return tokens + (asciiRun + 3) / 4;
+    }
+
+    /**
+     * {@link #estimateTokens} の見積もりで budget トークン以内に収まるよう、末尾を切り詰める。
+     * 後半に文の区切り（。や改行）があればそこで切る。収まっている場合は text をそのまま返す。
+     */
+    static String trimToTokens(String text, int budget) {
+        if (text == null || estimateTokens(text) <= budget) {
+            return text;
+        }
+        int tokens = 0;
+        int asciiRun = 0;
+        int end = 0;
+        while (end < text.length()) {
+            boolean ascii = text.charAt(end) < 0x80;
+            // ASCII は4文字ごとに1トークン増える（estimateTokens と同じ数え方）
+            int cost = ascii ? (asciiRun % 4 == 0 ? 1 : 0) : 1;
+            if (tokens + cost > budget) {
+                break;
+            }
+            tokens += cost;
+            asciiRun = ascii ? asciiRun + 1 : 0;
+            end++;
+        }
+        // サロゲートペアの途中で切らない
+        if (end > 0 && Character.isHighSurrogate(text.charAt(end - 1))) {
+            end--;
+        }
+        for (int i = end; i > end / 2; i--) {
+            char c = text.charAt(i - 1);
+            if (c == '。' || c == '\n' || c == '！' || c == '？') {
+                end = i;
+                break;
+            }
+        }
+        return text.substring(0, end).trim();
+    }
+
+    /**
+     * 固定文と差し込み位置に分解済みのテンプレート
+     */
+    static final class Template {
+        // literals.length == slots.length + 1。literals[i] の後に slots[i] の値が入る
+        private final String[] literals;
+        private final Slot[] slots;
+        private final int literalLength;
+
+        private Template(String[] literals, Slot[] slots) {
+            this.literals = literals;
+            this.slots = slots;
+            int length = 0;
+            for (String literal : literals) {
+                length += literal.length();
+            }
+            this.literalLength = length;
+        }
+
+        /**
+         * テンプレートを分解する。未知の {名前} があれば IllegalArgumentException
+         */
+        static Template compile(String source) {
+            List<String> literals = new ArrayList<>();
+            List<Slot> slots = new ArrayList<>();
+            int literalStart = 0;
+            int open = source.indexOf('{');
+            while (open >= 0) {
+                Slot slot = slotAt(source, open);
+                if (slot == null) {
+                    throw new IllegalArgumentException("Unknown placeholder at " + open + ": " + source);
+                }
+                literals.add(source.substring(literalStart, open));
+                slots.add(slot);
+                literalStart = open + slot.placeholder.length();
+                open = source.indexOf('{', literalStart);
+            }
+            literals.add(source.substring(literalStart));
+            return new Template(literals.toArray(new String[0]), slots.toArray(new Slot[0]));
+        }
+
+        /**
+         * values は {@link Slot#ordinal()} の順に並べた差し込む値
+         */
+        String render(String[] values) {
+            int length = literalLength;
+            for (Slot slot : slots) {
+                String value = values[slot.ordinal()];
+                length += value != null ? value.length() : 0;
+            }
+            StringBuilder sb = new StringBuilder(length);
+            for (int i = 0; i < slots.length; i++) {
+                sb.append(literals[i]);
+                String value = values[slots[i].ordinal()];
+                if (value != null) {
+                    sb.append(value);
+                }
+            }
+            return sb.append(literals[slots.length]).toString();
+        }
+
+        private static Slot slotAt(String source, int index) {
+            for (Slot slot : Slot.values()) {
+                if (source.startsWith(slot.placeholder, index)) {
+                    return slot;
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package com.example.liefantidia2;
+
+import android.content.res.Resources;
+import android.graphics.Typeface;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.style.BulletSpan;
+import android.text.style.RelativeSizeSpan;
+import android.text.style.StyleSpan;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.TextView;
+
+import androidx.annotation.MainThread;
+import androidx.core.text.PrecomputedTextCompat;
+import androidx.core.widget.TextViewCompat;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * レシピの Markdown を装飾付きテキスト（Spanned）に変換して TextView に表示する。
+ *
+ * 変換と、行の折り返し位置などのレイアウト計算（PrecomputedTextCompat）はバックグラウンドで行い、
+ * UIスレッドでは計算済みのテキストを設定するだけにします。結果は本文のハッシュをキーにメモリに保持し、
+ * 履歴から同じレシピを開き直した場合はキャッシュから同期的に表示します。
+ * ストリーミング生成の途中経過（{@link #startStream}）も、解析と変換は同じバックグラウンドのスレッドで行います。
+ */
+final class RecipeRenderer {
+
+    private static final String TAG = "RecipeRenderer";
+
+    // 保持する本文の文字数の上限（Spanned と PrecomputedText を合わせて本文の数倍のメモリを使う）
+    private static final int MAX_CHARS = 256 * 1024;
+
+    private static final String BULLET_MARKERS = "-*+・•";
+    private static final float[] HEADING_SIZES = {1.4f, 1.25f, 1.1f};
+    private static final int BULLET_GAP_PX = Math.round(8 * Resources.getSystem().getDisplayMetrics().density);
+
+    private static final ExecutorService renderExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "RecipeRenderer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static volatile RecipeRenderer sharedInstance;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // キーは本文の hashCode。衝突した場合に別のレシピを表示しないよう、取り出す際に本文も比較する
+    private final LruCache<Integer, Rendered> cache = new LruCache<Integer, Rendered>(MAX_CHARS) {
+        @Override
+        protected int sizeOf(Integer key, Rendered rendered) {
+            return Math.max(1, rendered.source.length());
+        }
+    };
+
+    // TextView ごとの最新の表示要求（UIスレッドのみで参照）。古い要求の結果は表示しない
+    private final Map<TextView, Object> pendingRequests = new WeakHashMap<>();
+
+    /**
+     * 変換済みの本文
+     */
+    private static final class Rendered {
+        final String source;
+        final Spanned spanned;
+        final PrecomputedTextCompat precomputed;
+
+        Rendered(String source, Spanned spanned, PrecomputedTextCompat precomputed) {
+            this.source = source;
+            this.spanned = spanned;
+            this.precomputed = precomputed;
+        }
+    }
+
+    static RecipeRenderer getInstance() {
+        RecipeRenderer instance = sharedInstance;
+        if (instance == null) {
+            synchronized (RecipeRenderer.class) {
+                instance = sharedInstance;
+                if (instance == null) {
+                    instance = new RecipeRenderer();
+                    sharedInstance = instance;
+                }
+            }
+        }
+        return instance;
+    }
+
+    private RecipeRenderer() {
+    }
+
+    /**
+     * Markdown を変換して表示する。キャッシュに無い場合はバックグラウンドで変換し、完了後に表示する。
+     * 完了前に同じ TextView へ render / {@link #cancel} が呼ばれた場合、この結果は表示しない。
+     */
+    @MainThread
+    void render(TextView view, String markdown) {
+        PrecomputedTextCompat.Params params = TextViewCompat.getTextMetricsParams(view);
+        Rendered cached = getCached(markdown);
+        if (cached != null && params.equals(cached.precomputed.getParams())) {
+            pendingRequests.remove(view);
+            apply(view, cached);
+            return;
+        }
+
+        Object request = new Object();
+        pendingRequests.put(view, request);
+        renderExecutor.execute(() -> {
+            // 文字サイズなどが変わってレイアウトだけが使えない場合は、変換結果を再利用する
+            Spanned spanned = cached != null ? cached.spanned : toSpanned(markdown);
+            Rendered rendered = new Rendered(markdown, spanned, PrecomputedTextCompat.create(spanned, params));
+            cache.put(markdown.hashCode(), rendered);
+            mainHandler.post(() -> {
+                if (pendingRequests.get(view) != request) {
+                    return;
+                }
+                pendingRequests.remove(view);
+                apply(view, rendered);
+            });
+        });
+    }
+
+    /**
+     * ストリーミング生成の途中経過の表示を開始する。受信したチャンクは {@link StreamPreview#append} に渡す。
+     * 以降に同じ TextView へ render / {@link #cancel} が呼ばれた時点で、途中経過は表示しなくなる。
+     */
+    @MainThread
+    StreamPreview startStream(TextView view) {
+        Object request = new Object();
+        pendingRequests.put(view, request);
+        return new StreamPreview(view, request);
+    }
+
+    /**
+     * 変換中の表示要求を取り消す（変換を待たずに別のテキストを表示する場合に呼ぶ）
+     */
+    @MainThread
+    void cancel(TextView view) {
+        pendingRequests.remove(view);
+    }
+
+    /**
+     * ストリーミング中のレシピ JSON の途中経過を、バックグラウンドで解析・装飾して表示する。
+     *
+     * 受信済みの全体を毎回解析し直すため、変換中に届いたチャンクはまとめて次の1回で反映します
+     * （変換待ちは常に最大1件）。UIスレッドでは装飾済みのテキストを設定するだけです。
+     */
+    final class StreamPreview {
+        private final TextView view;
+        private final Object request;
+        // 受信済みの JSON（ネットワークのスレッドで追加し、変換スレッドで読み出す）
+        private final StringBuilder received = new StringBuilder();
+        private boolean scheduled;
+
+        private StreamPreview(TextView view, Object request) {
+            this.view = view;
+            this.request = request;
+        }
+
+        /**
+         * 受信したチャンクを追加する。どのスレッドから呼んでもよい
+         */
+        void append(CharSequence delta) {
+            synchronized (received) {
+                received.append(delta);
+                if (scheduled) {
+                    return; // 変換待ちの1件に含めて反映する
+                }
+                scheduled = true;
+            }
+            renderExecutor.execute(this::renderLatest);
+        }
+
+        private void renderLatest() {
+            String json;
+            synchronized (received) {
+                json = received.toString();
+                scheduled = false;
+            }
+            String markdown = Recipe.parsePartial(json).toMarkdown();
+            if (markdown.isEmpty()) {
+                return; // 読み終えた項目が無いうちは「考案中」のメッセージを残す
+            }
+            Spanned spanned = toSpanned(markdown);
+            mainHandler.post(() -> {
+                if (pendingRequests.get(view) == request) {
+                    view.setText(spanned);
+                }
+            });
+        }
+    }
+
+    private Rendered getCached(String markdown) {
+        Rendered rendered = cache.get(markdown.hashCode());
+        return rendered != null && rendered.source.equals(markdown) ? rendered : null;
+    }
+
+    private static void apply(TextView view, Rendered rendered) {
+        try {
+            TextViewCompat.setPrecomputedText(view, rendered.precomputed);
+        } catch (IllegalArgumentException e) {
+            // 計算後に TextView の文字サイズや幅の設定が変わった場合
+            Log.d(TAG, "Text metrics changed; falling back to setText", e);
+            view.setText(rendered.spanned);
+        }
+    }
+
+    /**
+     * Markdown を装飾付きテキストに変換する。見出しは太字・拡大、箇条書きは行頭の点、**強調** は太字にし、記号は取り除く。
+     * 番号付きの手順は番号をそのまま残す。スレッドを問わず呼び出してよい（ストリーミング中は {@link StreamPreview} が変換スレッドで呼ぶ）。
+     */
+    static Spanned toSpanned(CharSequence markdown) {
+        SpannableStringBuilder out = new SpannableStringBuilder();
+        int length = markdown.length();
+        int lineStart = 0;
+        while (lineStart <= length) {
+            int lineEnd = lineStart;
+            while (lineEnd < length && markdown.charAt(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            appendLine(out, markdown, lineStart, lineEnd, lineEnd < length);
+            lineStart = lineEnd + 1;
+        }
+        return out;
+    }
+
+    private static void appendLine(SpannableStringBuilder out, CharSequence text, int lineStart, int lineEnd,
+                                   boolean newline) {
+        int start = lineStart;
+        while (start < lineEnd && isWhitespace(text.charAt(start))) {
+            start++;
+        }
+        int end = lineEnd;
+        while (end > start && isWhitespace(text.charAt(end - 1))) {
+            end--;
+        }
+        int spanStart = out.length();
+
+        int level = RecipeMarkdownParser.headingLevel(text, start, end);
+        if (level > 0) {
+            int textStart = RecipeMarkdownParser.headingTextStart(text, start, end, level);
+            appendInline(out, text, textStart, RecipeMarkdownParser.headingTextEnd(text, textStart, end));
+            int textEnd = out.length();
+            if (newline) {
+                out.append('\n');
+            }
+            float size = HEADING_SIZES[Math.min(level, HEADING_SIZES.length) - 1];
+            out.setSpan(new StyleSpan(Typeface.BOLD), spanStart, textEnd, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+            out.setSpan(new RelativeSizeSpan(size), spanStart, textEnd, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+            return;
+        }
+
+        int itemStart = RecipeMarkdownParser.skipListMarker(text, start, end);
+        // 番号付き（1. や ①）の行は番号を残し、記号の箇条書きだけを行頭の点にする
+        boolean bullet = itemStart > start && BULLET_MARKERS.indexOf(text.charAt(start)) >= 0;
+        appendInline(out, text, bullet ? itemStart : start, end);
+        if (newline) {
+            out.append('\n');
+        }
+        if (bullet) {
+            // 段落単位のスパンは改行の直後（または末尾）で終わる必要がある
+            out.setSpan(new BulletSpan(BULLET_GAP_PX), spanStart, out.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        }
+    }
+
+    /**
+     * 行内の **強調** を太字にして追加する。閉じる ** が無い場合は記号ごとそのまま追加する
+     */
+    private static void appendInline(SpannableStringBuilder out, CharSequence text, int start, int end) {
+        int i = start;
+        while (i < end) {
+            int open = indexOfEmphasis(text, i, end);
+            int close = open >= 0 ? indexOfEmphasis(text, open + 2, end) : -1;
+            if (close < 0) {
+                out.append(text, i, end);
+                return;
+            }
+            out.append(text, i, open);
+            int boldStart = out.length();
+            out.append(text, open + 2, close);
+            out.setSpan(new StyleSpan(Typeface.BOLD), boldStart, out.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+            i = close + 2;
+        }
+    }
+
+    private static int indexOfEmphasis(CharSequence text, int from, int end) {
+        for (int i = from; i + 1 < end; i++) {
+            if (text.charAt(i) == '*' && text.charAt(i + 1) == '*') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\r' || c == '　';
+    }
+}
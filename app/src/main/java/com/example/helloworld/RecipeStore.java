@@ -0,0 +1,74 @@
+package com.example.liefantidia2;
+
+import android.util.LruCache;
+
+/**
+ * 本文を読み込んだレシピ履歴を、プロセス内で共有するメモリキャッシュ。
+ *
+ * 画面間ではドキュメントIDだけを受け渡し、受け取った側はこのストアから本文を引きます。
+ * 上限は保持する文字数で決め、超えた分は最近使われていないものから破棄します。
+ * プロセスが破棄されてストアが空になった場合は、呼び出し元がローカルDB（HistoryManager）から読み直します。
+ */
+final class RecipeStore {
+
+    // 保持する文字数の上限（UTF-16 で約1MB。数KBのレシピで数百件分）
+    private static final int MAX_CHARS = 512 * 1024;
+
+    private static volatile RecipeStore sharedInstance;
+
+    private final LruCache<String, RecipeHistory> cache = new LruCache<String, RecipeHistory>(MAX_CHARS) {
+        @Override
+        protected int sizeOf(String id, RecipeHistory history) {
+            return Math.max(1, length(history.getRecipeContent()) + length(history.getIngredientsWithUsage())
+                    + length(history.getAllConstraints()) + length(history.getRecipeTitle()));
+        }
+    };
+
+    static RecipeStore getInstance() {
+        RecipeStore instance = sharedInstance;
+        if (instance == null) {
+            synchronized (RecipeStore.class) {
+                instance = sharedInstance;
+                if (instance == null) {
+                    instance = new RecipeStore();
+                    sharedInstance = instance;
+                }
+            }
+        }
+        return instance;
+    }
+
+    private RecipeStore() {
+    }
+
+    /**
+     * 本文を含む履歴を保持する。本文が無いもの（一覧用の要約）は保持しない
+     */
+    void put(RecipeHistory history) {
+        if (history == null || history.getId() == null || history.getRecipeContent() == null) {
+            return;
+        }
+        cache.put(history.getId(), history);
+    }
+
+    /**
+     * @return 本文を含む履歴。保持していない場合は null
+     */
+    RecipeHistory get(String id) {
+        return id != null ? cache.get(id) : null;
+    }
+
+    void remove(String id) {
+        if (id != null) {
+            cache.remove(id);
+        }
+    }
+
+    void clear() {
+        cache.evictAll();
+    }
+
+    private static int length(String value) {
+        return value != null ? value.length() : 0;
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.liefantidia2;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Gemini API の一時的なエラー（429 / 5xx / 通信エラー）に対する再試行ポリシー。
+ *
+ * 待ち時間は指数バックオフ + フルジッター（0 〜 min(上限, 基準値 * 2^n) の一様乱数）で決定し、
+ * サーバーが Retry-After や RetryInfo で待ち時間を指定した場合はそちらを優先します。
+ * 最大試行回数か全体の期限のどちらかに達した時点で再試行を打ち切ります。
+ */
+public class RetryPolicy {
+
+    /** 再試行しない場合の戻り値 */
+    public static final long NO_RETRY = -1;
+
+    private final int maxAttempts;
+    private final long totalDeadlineMillis;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+
+    /**
+     * @param maxAttempts 初回を含む最大試行回数
+     * @param totalDeadlineMillis 初回送信からの全体の期限（待ち時間を含む）
+     * @param baseDelayMillis バックオフの基準値
+     * @param maxDelayMillis 1回あたりの待ち時間の上限
+     */
+    public RetryPolicy(int maxAttempts, long totalDeadlineMillis, long baseDelayMillis, long maxDelayMillis) {
+        this.maxAttempts = maxAttempts;
+        this.totalDeadlineMillis = totalDeadlineMillis;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * 既定値: 最大4回、全体90秒、0.5秒起点・最大8秒のバックオフ
+     */
+    public static RetryPolicy defaultPolicy() {
+        return new RetryPolicy(4, 90_000, 500, 8_000);
+    }
+
+    /**
+     * 再試行しないポリシー
+     */
+    public static RetryPolicy noRetry() {
+        return new RetryPolicy(1, 0, 0, 0);
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * 再試行対象のHTTPステータスか（429 Too Many Requests と一時的な 5xx）
+     */
+    public boolean isRetryableStatus(int code) {
+        return code == 429 || code == 500 || code == 502 || code == 503 || code == 504;
+    }
+
+    /**
+     * 次の試行までの待ち時間を計算する。
+     *
+     * @param failedAttempt 失敗した試行の番号（1始まり）
+     * @param elapsedMillis 初回送信からの経過時間
+     * @param serverDelayMillis サーバー指定の待ち時間（指定がなければ負の値）
+     * @return 待ち時間(ms)。再試行しない場合は {@link #NO_RETRY}
+     */
+    public long nextDelayMillis(int failedAttempt, long elapsedMillis, long serverDelayMillis) {
+        if (failedAttempt >= maxAttempts) {
+            return NO_RETRY;
+        }
+
+        long delay;
+        if (serverDelayMillis >= 0) {
+            delay = serverDelayMillis;
+        } else {
+            // オーバーフローを避けるためシフト量を制限
+            long ceiling = Math.min(maxDelayMillis, baseDelayMillis << Math.min(failedAttempt - 1, 20));
+            delay = ceiling > 0 ? ThreadLocalRandom.current().nextLong(ceiling + 1) : 0;
+        }
+
+        if (elapsedMillis + delay >= totalDeadlineMillis) {
+            return NO_RETRY;
+        }
+        return delay;
+    }
+}
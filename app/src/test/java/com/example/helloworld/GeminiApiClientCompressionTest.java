@@ -0,0 +1,153 @@
+package com.example.liefantidia2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.GzipSource;
+import okio.Okio;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * リクエスト本文の gzip 圧縮と、サーバーが圧縮を受け付けなかった場合の非圧縮での再送を、
+ * ローカルの MockWebServer で確認する（通信はすべてオフライン）。
+ */
+public class GeminiApiClientCompressionTest {
+
+    private static final String API_KEY = "test-key";
+    private static final String INGREDIENTS = "鶏もも肉、玉ねぎ、卵 (入力された具材は全て使用してください)";
+    private static final String CONSTRAINTS = "主食: ご飯類, ジャンル: 和食";
+    private static final long TIMEOUT_SECONDS = 10;
+
+    @Rule
+    public TemporaryFolder cacheDir = new TemporaryFolder();
+
+    private MockWebServer server;
+    private GeminiApiClient client;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        client = new GeminiApiClient(cacheDir.getRoot(), RetryPolicy.defaultPolicy(), new OkHttpClient(),
+                server.url("/").toString());
+        // 最小の本文でも圧縮されるようにする
+        client.setCompressionThresholdBytes(1);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        client.shutdown();
+        server.shutdown();
+    }
+
+    @Test
+    public void bodyAboveThreshold_isSentGzipped() throws Exception {
+        server.enqueue(ScriptedGeminiDispatcher.generateResponse());
+
+        Result result = generate();
+
+        assertNull(result.failure);
+        assertEquals(ScriptedGeminiDispatcher.RECIPE_JSON, result.recipe);
+        RecordedRequest request = server.takeRequest();
+        assertEquals("gzip", request.getHeader("Content-Encoding"));
+        assertEquals(RecipePrompt.build(INGREDIENTS, CONSTRAINTS), promptOf(gunzip(request.getBody())));
+        assertFalse(client.isCompressionDisabled());
+    }
+
+    @Test
+    public void unsupportedMediaType_resendsUncompressedOnceAndDisablesCompression() throws Exception {
+        server.enqueue(ScriptedGeminiDispatcher.errorResponse(415, "UNSUPPORTED_MEDIA_TYPE",
+                "Content-Encoding gzip is not supported.", null));
+        server.enqueue(ScriptedGeminiDispatcher.generateResponse());
+
+        Result result = generate();
+
+        assertNull(result.failure);
+        assertEquals(ScriptedGeminiDispatcher.RECIPE_JSON, result.recipe);
+        assertEquals(2, server.getRequestCount());
+        RecordedRequest compressed = server.takeRequest();
+        RecordedRequest plain = server.takeRequest();
+        assertEquals("gzip", compressed.getHeader("Content-Encoding"));
+        assertNull(plain.getHeader("Content-Encoding"));
+        assertEquals(gunzip(compressed.getBody()), plain.getBody().readUtf8());
+        assertTrue(client.isCompressionDisabled());
+    }
+
+    @Test
+    public void unrelatedBadRequest_keepsCompressionEnabled() throws Exception {
+        // 本文の形式に関する語（JSON, payload）を含むが、圧縮とは無関係の INVALID_ARGUMENT
+        server.enqueue(ScriptedGeminiDispatcher.errorResponse(400, "INVALID_ARGUMENT",
+                "Invalid JSON payload received. Unknown name \"foo\": Cannot find field.", null));
+        server.enqueue(ScriptedGeminiDispatcher.generateResponse());
+
+        Result failed = generate();
+
+        assertTrue(failed.failure, failed.failure.contains("400"));
+        assertEquals(1, server.getRequestCount());
+        assertFalse(client.isCompressionDisabled());
+
+        // 次のリクエストも圧縮して送る
+        generate();
+        server.takeRequest();
+        assertEquals("gzip", server.takeRequest().getHeader("Content-Encoding"));
+    }
+
+    /**
+     * キャッシュを使わずに一括生成し、完了まで待つ
+     */
+    private Result generate() throws InterruptedException {
+        Result result = new Result();
+        CountDownLatch done = new CountDownLatch(1);
+        client.generateRecipe(API_KEY, INGREDIENTS, CONSTRAINTS, true, new GeminiApiClient.RecipeCallback() {
+            @Override
+            public void onResult(String recipe) {
+                result.recipe = recipe;
+            }
+
+            @Override
+            public void onComplete() {
+                done.countDown();
+            }
+
+            @Override
+            public void onFailure(String error) {
+                result.failure = error;
+            }
+        });
+        assertTrue("generation did not complete", done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        return result;
+    }
+
+    private static String gunzip(Buffer body) throws IOException {
+        try (BufferedSource source = Okio.buffer(new GzipSource(body.clone()))) {
+            return source.readUtf8();
+        }
+    }
+
+    private static String promptOf(String requestJson) throws Exception {
+        return new JSONObject(requestJson).getJSONArray("contents").getJSONObject(0)
+                .getJSONArray("parts").getJSONObject(0).getString("text");
+    }
+
+    private static final class Result {
+        volatile String recipe;
+        volatile String failure;
+    }
+}
@@ -0,0 +1,128 @@
+package com.example.liefantidia2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockWebServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * ローカルの MockWebServer を Gemini API に見立てた、GeminiApiClient の負荷試験（通信はすべてオフライン）。
+ *
+ * 本番と同じ HttpClientProvider のクライアント（Dispatcher とコネクションプールの設定）と既定の RetryPolicy で、
+ * 同時に N 件の生成を要求し、スループット・遅延の百分位数・Dispatcher の混雑具合を標準出力に表示する。
+ * 件数は -Dgemini.load.calls=200 のように変更できる（既定は 40 件）。
+ */
+public class GeminiApiClientLoadTest {
+
+    private static final int CALLS = Integer.getInteger("gemini.load.calls", 40);
+    private static final long SEED = 20240601L;
+    private static final long TIMEOUT_MILLIS = 60_000;
+
+    @Rule
+    public TemporaryFolder cacheDir = new TemporaryFolder();
+
+    private MockWebServer server;
+    private ScriptedGeminiDispatcher gemini;
+    private OkHttpClient httpClient;
+    private GeminiApiClient client;
+    private GeminiLoadHarness harness;
+
+    @Before
+    public void setUp() throws IOException {
+        gemini = new ScriptedGeminiDispatcher(SEED);
+        server = new MockWebServer();
+        server.setDispatcher(gemini);
+        server.start();
+
+        httpClient = HttpClientProvider.get();
+        // 前のテストのサーバーへの接続が残っていると接続数の計測に混ざるため、空にしてから始める
+        httpClient.connectionPool().evictAll();
+        client = new GeminiApiClient(cacheDir.getRoot(), RetryPolicy.defaultPolicy(), httpClient,
+                server.url("/").toString());
+        harness = new GeminiLoadHarness(client, httpClient);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        client.shutdown();
+        server.shutdown();
+    }
+
+    @Test
+    public void steadyLoad_allSucceedAndDispatcherQueuesBeyondPerHostLimit() throws Exception {
+        gemini.setLatency(ScriptedGeminiDispatcher.Latency.logNormal(150, 0.5));
+
+        GeminiLoadHarness.LoadReport report = run("steady", false);
+
+        assertEquals(CALLS, report.succeeded.get());
+        assertEquals(CALLS, gemini.getRequestCount());
+        // ホスト単位の上限を超えた分は Dispatcher の待ち行列に入る
+        assertTrue(report.getMaxRunning() <= report.maxRequestsPerHost);
+        if (CALLS > report.maxRequestsPerHost) {
+            assertTrue(report.getMaxQueued() > 0);
+        }
+    }
+
+    @Test
+    public void rateLimitStorm_retriesFollowRetryInfo() throws Exception {
+        gemini.setLatency(ScriptedGeminiDispatcher.Latency.uniform(20, 80));
+        gemini.setRateLimitRate(0.4, 50);
+
+        GeminiLoadHarness.LoadReport report = run("429 storm", false);
+
+        assertEquals(0, report.timedOut);
+        assertEquals(CALLS, report.completed());
+        // 再試行1回につきサーバーへのリクエストが1件増える
+        assertEquals(CALLS + report.retries, gemini.getRequestCount());
+        assertTrue(gemini.getRateLimitedCount() > 0);
+    }
+
+    @Test
+    public void serverErrorsAndTruncatedBodies_everyCallCompletes() throws Exception {
+        gemini.setLatency(ScriptedGeminiDispatcher.Latency.logNormal(100, 0.8));
+        gemini.setServerErrorRate(0.1);
+        gemini.setTruncateRate(0.15);
+
+        GeminiLoadHarness.LoadReport report = run("503 + truncated", false);
+
+        assertEquals(0, report.timedOut);
+        assertEquals(CALLS, report.completed());
+        assertEquals(CALLS + report.retries, gemini.getRequestCount());
+    }
+
+    @Test
+    public void slowStreaming_truncatedStreamsFailWithoutHanging() throws Exception {
+        gemini.setLatency(ScriptedGeminiDispatcher.Latency.fixed(50));
+        gemini.setStreamChunkDelayMillis(20);
+        gemini.setTruncateRate(0.2);
+
+        GeminiLoadHarness.LoadReport report = run("slow SSE", true);
+
+        assertEquals(0, report.timedOut);
+        assertEquals(CALLS, report.completed());
+        // 本文を途中まで配信したストリームは再試行しないため、切断された分だけ失敗として通知される
+        assertTrue(report.failed.get() <= gemini.getTruncatedCount());
+        for (String message : report.failureMessages) {
+            assertFalse(message, message.isEmpty());
+        }
+    }
+
+    private GeminiLoadHarness.LoadReport run(String scenario, boolean streaming) throws InterruptedException {
+        GeminiLoadHarness.LoadReport report = harness.run(CALLS, streaming, TIMEOUT_MILLIS);
+        System.out.println("[" + scenario + "] " + report
+                + " | server requests=" + gemini.getRequestCount()
+                + " (429=" + gemini.getRateLimitedCount() + ", 503=" + gemini.getServerErrorCount()
+                + ", truncated=" + gemini.getTruncatedCount() + ")");
+        return report;
+    }
+}
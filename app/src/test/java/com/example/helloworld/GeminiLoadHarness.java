@@ -0,0 +1,200 @@
+package com.example.liefantidia2;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+
+/**
+ * GeminiApiClient に N 件の生成を同時に要求し、完了までの時間と OkHttp の混雑具合を計測する。
+ *
+ * 各リクエストは食材を変えて送信するため、実行中リクエストへの相乗りやキャッシュには当たらない。
+ * 実行中は一定間隔で Dispatcher（実行中・待機中の呼び出し数）とコネクションプール（接続数）を記録する。
+ */
+final class GeminiLoadHarness {
+
+    private static final String API_KEY = "test-key";
+    private static final String CONSTRAINTS = "難易度: 初心者 (簡単), ジャンル: 和食, 調理時間: 30分以内";
+    private static final long SAMPLE_INTERVAL_MILLIS = 5;
+
+    private final GeminiApiClient client;
+    private final OkHttpClient httpClient;
+
+    GeminiLoadHarness(GeminiApiClient client, OkHttpClient httpClient) {
+        this.client = client;
+        this.httpClient = httpClient;
+    }
+
+    /**
+     * @param calls 同時に要求する生成の数
+     * @param streaming true の場合は generateRecipeStream、false の場合は generateRecipe
+     * @param timeoutMillis 全件の完了を待つ上限（超えた分は未完了として数える）
+     */
+    LoadReport run(int calls, boolean streaming, long timeoutMillis) throws InterruptedException {
+        Dispatcher dispatcher = httpClient.dispatcher();
+        ConnectionPool pool = httpClient.connectionPool();
+        LoadReport report = new LoadReport(calls, dispatcher.getMaxRequestsPerHost());
+        long retriesBefore = client.getMetrics().getRetryCount();
+
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+        sampler.scheduleAtFixedRate(() -> report.sample(dispatcher.runningCallsCount(), dispatcher.queuedCallsCount(),
+                pool.connectionCount()), 0, SAMPLE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+
+        CountDownLatch done = new CountDownLatch(calls);
+        long startedAt = System.nanoTime();
+        for (int i = 0; i < calls; i++) {
+            String ingredients = "鶏もも肉、玉ねぎ、卵 #" + i;
+            GeminiApiClient.RecipeCallback callback = new TimingCallback(report, done, System.nanoTime());
+            if (streaming) {
+                client.generateRecipeStream(API_KEY, ingredients, CONSTRAINTS, true, callback);
+            } else {
+                client.generateRecipe(API_KEY, ingredients, CONSTRAINTS, true, callback);
+            }
+        }
+        boolean completed = done.await(timeoutMillis, TimeUnit.MILLISECONDS);
+        report.wallMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+        sampler.shutdownNow();
+
+        report.timedOut = completed ? 0 : (int) done.getCount();
+        report.retries = client.getMetrics().getRetryCount() - retriesBefore;
+        return report;
+    }
+
+    /**
+     * 1件分の結果を記録するコールバック。onComplete までの時間を遅延として扱う
+     */
+    private static final class TimingCallback implements GeminiApiClient.RecipeCallback {
+        private final LoadReport report;
+        private final CountDownLatch done;
+        private final long startedAt;
+        private volatile boolean failed;
+        private volatile boolean validRecipe;
+
+        TimingCallback(LoadReport report, CountDownLatch done, long startedAt) {
+            this.report = report;
+            this.done = done;
+            this.startedAt = startedAt;
+        }
+
+        @Override
+        public void onResult(String result) {
+            Recipe recipe = Recipe.fromJson(result);
+            validRecipe = recipe != null && !recipe.isEmpty();
+        }
+
+        @Override
+        public void onFailure(String error) {
+            failed = true;
+            report.failureMessages.add(error);
+        }
+
+        @Override
+        public void onComplete() {
+            report.record(System.nanoTime() - startedAt, !failed && validRecipe);
+            done.countDown();
+        }
+    }
+
+    /**
+     * 計測結果
+     */
+    static final class LoadReport {
+        final int calls;
+        final int maxRequestsPerHost;
+        final AtomicInteger succeeded = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        final ConcurrentLinkedQueue<String> failureMessages = new ConcurrentLinkedQueue<>();
+        private final ConcurrentLinkedQueue<Long> latenciesNanos = new ConcurrentLinkedQueue<>();
+        int timedOut;
+        long retries;
+        long wallMillis;
+
+        // サンプリングは1スレッドからのみ行う
+        private volatile int maxRunning;
+        private volatile int maxQueued;
+        private volatile int maxConnections;
+        private volatile long queuedSamples;
+        private volatile long samples;
+
+        LoadReport(int calls, int maxRequestsPerHost) {
+            this.calls = calls;
+            this.maxRequestsPerHost = maxRequestsPerHost;
+        }
+
+        void record(long latencyNanos, boolean success) {
+            latenciesNanos.add(latencyNanos);
+            (success ? succeeded : failed).incrementAndGet();
+        }
+
+        void sample(int running, int queued, int connections) {
+            maxRunning = Math.max(maxRunning, running);
+            maxQueued = Math.max(maxQueued, queued);
+            maxConnections = Math.max(maxConnections, connections);
+            samples++;
+            if (queued > 0) {
+                queuedSamples++;
+            }
+        }
+
+        int completed() {
+            return succeeded.get() + failed.get();
+        }
+
+        double throughputPerSecond() {
+            return wallMillis > 0 ? completed() * 1000.0 / wallMillis : 0;
+        }
+
+        /**
+         * 完了した呼び出しの遅延の百分位数（nearest-rank）。完了が無ければ -1
+         */
+        long percentileMillis(double percentile) {
+            List<Long> sorted = new ArrayList<>(latenciesNanos);
+            if (sorted.isEmpty()) {
+                return -1;
+            }
+            Collections.sort(sorted);
+            int rank = (int) Math.ceil(percentile / 100.0 * sorted.size());
+            return TimeUnit.NANOSECONDS.toMillis(sorted.get(Math.max(0, rank - 1)));
+        }
+
+        int getMaxRunning() {
+            return maxRunning;
+        }
+
+        int getMaxQueued() {
+            return maxQueued;
+        }
+
+        int getMaxConnections() {
+            return maxConnections;
+        }
+
+        /**
+         * 計測中に Dispatcher の待ち行列が空でなかった割合（ホスト単位の上限で詰まっていた時間の目安）
+         */
+        double queuedRatio() {
+            return samples > 0 ? (double) queuedSamples / samples : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT,
+                    "calls=%d ok=%d failed=%d timedOut=%d retries=%d | %.1f req/s in %d ms"
+                            + " | latency p50=%d p95=%d p99=%d max=%d ms"
+                            + " | dispatcher running<=%d (perHost=%d) queued<=%d (%.0f%% of samples) connections<=%d",
+                    calls, succeeded.get(), failed.get(), timedOut, retries, throughputPerSecond(), wallMillis,
+                    percentileMillis(50), percentileMillis(95), percentileMillis(99), percentileMillis(100),
+                    maxRunning, maxRequestsPerHost, maxQueued, queuedRatio() * 100, maxConnections);
+        }
+    }
+}
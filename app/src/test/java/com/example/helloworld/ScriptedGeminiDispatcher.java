@@ -0,0 +1,248 @@
+package com.example.liefantidia2;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+
+/**
+ * MockWebServer 上で Gemini API（generateContent / streamGenerateContent）の応答を再現するディスパッチャー。
+ *
+ * 応答までの待ち時間は {@link Latency} の分布から、エラーは設定した割合でリクエストごとに抽選します。
+ *   429: RetryInfo 付きの RESOURCE_EXHAUSTED（クライアントは retryDelay に従って再送する）
+ *   503: 一時的な過負荷（クライアントはバックオフして再送する）
+ *   途中切断: 本文の途中で接続を切る（一括生成は再送、配信済みのストリーミングは失敗になる）
+ * 乱数はシードを指定できるため、同じ設定であれば抽選結果の割合は実行ごとにほぼ一定になります。
+ */
+final class ScriptedGeminiDispatcher extends Dispatcher {
+
+    static final String RECIPE_JSON = "{\"title\":\"鶏もも肉と玉ねぎの甘辛親子丼\",\"minutes\":25,\"ingredients\":["
+            + "{\"name\":\"鶏もも肉\",\"amount\":\"1枚（約250g）\"},{\"name\":\"玉ねぎ\",\"amount\":\"1/2個\"},"
+            + "{\"name\":\"卵\",\"amount\":\"3個\"},{\"name\":\"長ねぎ\",\"amount\":\"1/3本\"},"
+            + "{\"name\":\"しょうゆ\",\"amount\":\"大さじ2\"},{\"name\":\"みりん\",\"amount\":\"大さじ2\"}],"
+            + "\"steps\":[\"鶏もも肉は一口大に切り、玉ねぎは薄切り、長ねぎは斜め切りにする。\","
+            + "\"フライパンにだし汁、しょうゆ、みりんを入れて中火にかけ、玉ねぎを加えて3分ほど煮る。\","
+            + "\"鶏もも肉を加えて、ふたをして弱めの中火で5〜6分煮る。\","
+            + "\"溶き卵を回し入れて火を止め、ふたをして余熱で半熟に仕上げる。\","
+            + "\"器にご飯を盛り、具を煮汁ごとのせて完成です。\"]}";
+
+    // SSE の1チャンクあたりの文字数
+    private static final int STREAM_CHUNK_LENGTH = 60;
+
+    private static final String GENERATE_BODY = generateBody();
+    private static final String STREAM_BODY = streamBody();
+
+    /**
+     * 応答までの待ち時間（ヘッダーを返すまで）の分布
+     */
+    interface Latency {
+        long nextMillis(Random random);
+
+        static Latency fixed(long millis) {
+            return random -> millis;
+        }
+
+        static Latency uniform(long minMillis, long maxMillis) {
+            return random -> minMillis + (long) (random.nextDouble() * (maxMillis - minMillis));
+        }
+
+        /**
+         * 対数正規分布。中央値の周りに集まり、まれに大きく遅れる（実際の API の応答時間に近い）
+         */
+        static Latency logNormal(long medianMillis, double sigma) {
+            return random -> Math.round(Math.exp(Math.log(medianMillis) + sigma * random.nextGaussian()));
+        }
+    }
+
+    private final Random random;
+    private Latency latency = Latency.fixed(0);
+    private double rateLimitRate;
+    private long retryDelayMillis = 100;
+    private double serverErrorRate;
+    private double truncateRate;
+    private long streamChunkDelayMillis;
+
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private final AtomicInteger rateLimitedCount = new AtomicInteger();
+    private final AtomicInteger serverErrorCount = new AtomicInteger();
+    private final AtomicInteger truncatedCount = new AtomicInteger();
+
+    ScriptedGeminiDispatcher(long seed) {
+        this.random = new Random(seed);
+    }
+
+    void setLatency(Latency latency) {
+        this.latency = latency;
+    }
+
+    /**
+     * @param rate 429 を返す割合（0〜1）
+     * @param retryDelayMillis RetryInfo で指定する再送までの待ち時間
+     */
+    void setRateLimitRate(double rate, long retryDelayMillis) {
+        this.rateLimitRate = rate;
+        this.retryDelayMillis = retryDelayMillis;
+    }
+
+    void setServerErrorRate(double rate) {
+        this.serverErrorRate = rate;
+    }
+
+    void setTruncateRate(double rate) {
+        this.truncateRate = rate;
+    }
+
+    /**
+     * ストリーミングの本文を、チャンクごとにこの間隔を空けて送る
+     */
+    void setStreamChunkDelayMillis(long delayMillis) {
+        this.streamChunkDelayMillis = delayMillis;
+    }
+
+    int getRequestCount() {
+        return requestCount.get();
+    }
+
+    int getRateLimitedCount() {
+        return rateLimitedCount.get();
+    }
+
+    int getServerErrorCount() {
+        return serverErrorCount.get();
+    }
+
+    int getTruncatedCount() {
+        return truncatedCount.get();
+    }
+
+    @Override
+    public MockResponse dispatch(RecordedRequest request) {
+        requestCount.incrementAndGet();
+        boolean streaming = request.getPath() != null && request.getPath().contains(":streamGenerateContent");
+
+        double roll;
+        long delay;
+        // サーバーのスレッドから並行して呼ばれるため、抽選はまとめて排他する
+        synchronized (random) {
+            roll = random.nextDouble();
+            delay = Math.max(0, latency.nextMillis(random));
+        }
+
+        MockResponse response;
+        if (roll < rateLimitRate) {
+            rateLimitedCount.incrementAndGet();
+            response = errorResponse(429, "RESOURCE_EXHAUSTED", "Resource has been exhausted (e.g. check quota).",
+                    String.format(Locale.ROOT, "%.3fs", retryDelayMillis / 1000.0));
+        } else if (roll < rateLimitRate + serverErrorRate) {
+            serverErrorCount.incrementAndGet();
+            response = errorResponse(503, "UNAVAILABLE", "The model is overloaded. Please try again later.", null);
+        } else {
+            String body = streaming ? STREAM_BODY : GENERATE_BODY;
+            response = new MockResponse()
+                    .setResponseCode(200)
+                    .setHeader("Content-Type", streaming ? "text/event-stream" : "application/json; charset=UTF-8")
+                    .setBody(body);
+            if (roll < rateLimitRate + serverErrorRate + truncateRate) {
+                truncatedCount.incrementAndGet();
+                response.setSocketPolicy(SocketPolicy.DISCONNECT_DURING_RESPONSE_BODY);
+            }
+            if (streaming && streamChunkDelayMillis > 0) {
+                // 1チャンク分（"data: ...\r\n\r\n" の1件）ずつ間隔を空けて送る
+                long bytesPerChunk = response.getBody().size() / Math.max(1, countChunks());
+                response.throttleBody(Math.max(1, bytesPerChunk), streamChunkDelayMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        return response.setHeadersDelay(delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 一括生成（generateContent）の成功レスポンス。{@link #RECIPE_JSON} を1候補として返す
+     */
+    static MockResponse generateResponse() {
+        return new MockResponse()
+                .setResponseCode(200)
+                .setHeader("Content-Type", "application/json; charset=UTF-8")
+                .setBody(GENERATE_BODY);
+    }
+
+    /**
+     * Gemini API の形式のエラーレスポンス。retryDelay を指定すると google.rpc.RetryInfo を付ける
+     */
+    static MockResponse errorResponse(int code, String status, String message, String retryDelay) {
+        StringWriter out = new StringWriter();
+        try (JsonWriter json = new JsonWriter(out)) {
+            json.beginObject().name("error").beginObject()
+                    .name("code").value(code)
+                    .name("message").value(message)
+                    .name("status").value(status);
+            if (retryDelay != null) {
+                json.name("details").beginArray().beginObject()
+                        .name("@type").value("type.googleapis.com/google.rpc.RetryInfo")
+                        .name("retryDelay").value(retryDelay)
+                        .endObject().endArray();
+            }
+            json.endObject().endObject();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return new MockResponse()
+                .setResponseCode(code)
+                .setHeader("Content-Type", "application/json; charset=UTF-8")
+                .setBody(out.toString());
+    }
+
+    private static int countChunks() {
+        return (RECIPE_JSON.length() + STREAM_CHUNK_LENGTH - 1) / STREAM_CHUNK_LENGTH;
+    }
+
+    private static String generateBody() {
+        return candidateResponse(RECIPE_JSON, true);
+    }
+
+    private static String streamBody() {
+        StringBuilder sb = new StringBuilder();
+        for (int start = 0; start < RECIPE_JSON.length(); start += STREAM_CHUNK_LENGTH) {
+            int end = Math.min(start + STREAM_CHUNK_LENGTH, RECIPE_JSON.length());
+            sb.append("data: ").append(candidateResponse(RECIPE_JSON.substring(start, end), end == RECIPE_JSON.length()))
+                    .append("\r\n\r\n");
+        }
+        return sb.toString();
+    }
+
+    private static String candidateResponse(String text, boolean last) {
+        StringWriter out = new StringWriter();
+        try (JsonWriter json = new JsonWriter(out)) {
+            json.beginObject().name("candidates").beginArray().beginObject();
+            json.name("content").beginObject()
+                    .name("parts").beginArray().beginObject().name("text").value(text).endObject().endArray()
+                    .name("role").value("model")
+                    .endObject();
+            if (last) {
+                json.name("finishReason").value("STOP");
+            }
+            json.name("index").value(0);
+            json.endObject().endArray();
+            if (last) {
+                json.name("usageMetadata").beginObject()
+                        .name("promptTokenCount").value(182)
+                        .name("candidatesTokenCount").value(402)
+                        .name("totalTokenCount").value(584)
+                        .endObject();
+            }
+            json.name("modelVersion").value("gemini-2.5-flash");
+            json.endObject();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toString();
+    }
+}
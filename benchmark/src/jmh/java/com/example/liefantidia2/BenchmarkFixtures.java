@@ -0,0 +1,169 @@
+package com.example.liefantidia2;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * ベンチマークで共通に使用する、実際の利用に近い入力データ。
+ */
+final class BenchmarkFixtures {
+
+    static final String INGREDIENTS_WITH_USAGE =
+            "鶏もも肉、玉ねぎ、卵、長ねぎ、しいたけ (入力された具材は全て使用してください)";
+
+    /** 自由指示（【最重要指示】）の入力 */
+    static final String INSTRUCTIONS = "子どもが食べやすいように甘めの味付けにしてください。"
+            + "フライパン1つで作れる手順にし、洗い物を減らしたいです。\n卵は半熟に仕上げてください。";
+
+    /** MainActivity が組み立てる制約（RecipeConstraints.encode の出力） */
+    static final String ALL_CONSTRAINTS = newConstraints().encode();
+
+    /** GeminiApiClient が送信するプロンプト */
+    static final String PROMPT = RecipePrompt.build(INGREDIENTS_WITH_USAGE, ALL_CONSTRAINTS);
+
+    /** Recipe.toJson と同じ形式の、実際の生成結果に近い長さ（約1.3KB）のレシピ本文 */
+    static final String RECIPE_JSON = "{\"title\":\"鶏もも肉と玉ねぎの甘辛親子丼\",\"minutes\":25,\"ingredients\":["
+            + "{\"name\":\"鶏もも肉\",\"amount\":\"1枚（約250g）\"},{\"name\":\"玉ねぎ\",\"amount\":\"1/2個\"},"
+            + "{\"name\":\"卵\",\"amount\":\"3個\"},{\"name\":\"長ねぎ\",\"amount\":\"1/3本\"},"
+            + "{\"name\":\"しいたけ\",\"amount\":\"2枚\"},{\"name\":\"ご飯\",\"amount\":\"2杯分\"},"
+            + "{\"name\":\"だし汁\",\"amount\":\"150ml\"},{\"name\":\"しょうゆ\",\"amount\":\"大さじ2\"},"
+            + "{\"name\":\"みりん\",\"amount\":\"大さじ2\"},{\"name\":\"砂糖\",\"amount\":\"大さじ1\"}],\"steps\":["
+            + "\"鶏もも肉は余分な脂を取り除き、一口大に切る。玉ねぎは薄切り、長ねぎは斜め切り、しいたけは石づきを取って薄切りにする。\","
+            + "\"フライパンにだし汁、しょうゆ、みりん、砂糖を入れて中火にかけ、煮立ったら玉ねぎとしいたけを加えて3分ほど煮る。\","
+            + "\"鶏もも肉を加えて、ふたをして弱めの中火で5〜6分煮る。途中で上下を返し、火が通るまで煮込む。\","
+            + "\"長ねぎを加えてさっと煮たら、溶き卵の2/3量を回し入れ、ふたをして30秒ほど加熱する。\","
+            + "\"残りの卵を回し入れて火を止め、ふたをして余熱で半熟に仕上げる。\","
+            + "\"器にご飯を盛り、フライパンの具を煮汁ごとのせて完成です。お好みで三つ葉や七味唐辛子を添える。\"]}";
+
+    /** 構造化出力に移行する前の、Markdown 形式で保存された履歴の本文 */
+    static final String RECIPE_MARKDOWN = "# 鶏もも肉と玉ねぎの甘辛親子丼\n\n"
+            + "調理時間: 約25分\n\n"
+            + "## 材料\n"
+            + "- 鶏もも肉: 1枚（約250g）\n- 玉ねぎ: 1/2個\n- 卵: 3個\n- 長ねぎ: 1/3本\n- しいたけ: 2枚\n"
+            + "- ご飯: 2杯分\n- だし汁: 150ml\n- しょうゆ: 大さじ2\n- みりん: 大さじ2\n- 砂糖: 大さじ1\n\n"
+            + "## 手順\n"
+            + "1. 鶏もも肉は余分な脂を取り除き、一口大に切る。玉ねぎは薄切り、長ねぎは斜め切り、しいたけは石づきを取って薄切りにする。\n"
+            + "2. フライパンにだし汁、しょうゆ、みりん、砂糖を入れて中火にかけ、煮立ったら玉ねぎとしいたけを加えて3分ほど煮る。\n"
+            + "3. 鶏もも肉を加えて、ふたをして弱めの中火で5〜6分煮る。途中で上下を返し、火が通るまで煮込む。\n"
+            + "4. 長ねぎを加えてさっと煮たら、溶き卵の2/3量を回し入れ、ふたをして30秒ほど加熱する。\n"
+            + "5. 残りの卵を回し入れて火を止め、ふたをして余熱で半熟に仕上げる。\n"
+            + "6. 器にご飯を盛り、フライパンの具を煮汁ごとのせて完成です。お好みで三つ葉や七味唐辛子を添える。";
+
+    /** 手順が長く続く約20KB（UTF-8）の Markdown 本文。最後に材料・手順以外のセクションを含む */
+    static final String RECIPE_MARKDOWN_20KB = largeMarkdown(20 * 1024);
+
+    /** generateContent（一括生成）のレスポンス。実際のレスポンスと同じく safetyRatings などの不要なフィールドを含む */
+    static final String GEMINI_RESPONSE = geminiResponse(1);
+
+    /** candidateCount = 3 を指定した場合のレスポンス */
+    static final String GEMINI_RESPONSE_VARIANTS = geminiResponse(3);
+
+    /** streamGenerateContent（SSE）の各 data 行。レシピの JSON を約60文字ずつに分けて返す */
+    static final List<String> GEMINI_STREAM_CHUNKS = geminiStreamChunks(60);
+
+    private BenchmarkFixtures() {
+    }
+
+    private static String geminiResponse(int candidates) {
+        StringWriter out = new StringWriter();
+        try (JsonWriter json = new JsonWriter(out)) {
+            json.beginObject().name("candidates").beginArray();
+            for (int i = 0; i < candidates; i++) {
+                writeCandidate(json, RECIPE_JSON, i, "STOP");
+            }
+            json.endArray();
+            writeUsageMetadata(json);
+            json.name("modelVersion").value("gemini-2.5-flash");
+            json.name("responseId").value("mWSiaN2lO7aHnsEPq9zW0Qk");
+            json.endObject();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toString();
+    }
+
+    private static List<String> geminiStreamChunks(int chunkLength) {
+        List<String> chunks = new ArrayList<>();
+        for (int start = 0; start < RECIPE_JSON.length(); start += chunkLength) {
+            int end = Math.min(start + chunkLength, RECIPE_JSON.length());
+            StringWriter out = new StringWriter();
+            try (JsonWriter json = new JsonWriter(out)) {
+                json.beginObject().name("candidates").beginArray();
+                writeCandidate(json, RECIPE_JSON.substring(start, end), 0, end == RECIPE_JSON.length() ? "STOP" : null);
+                json.endArray();
+                if (end == RECIPE_JSON.length()) {
+                    // usageMetadata は最後のチャンクにのみ含まれる
+                    writeUsageMetadata(json);
+                }
+                json.name("modelVersion").value("gemini-2.5-flash");
+                json.endObject();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            chunks.add(out.toString());
+        }
+        return Collections.unmodifiableList(chunks);
+    }
+
+    private static void writeCandidate(JsonWriter json, String text, int index, String finishReason) throws IOException {
+        json.beginObject();
+        json.name("content").beginObject()
+                .name("parts").beginArray().beginObject().name("text").value(text).endObject().endArray()
+                .name("role").value("model")
+                .endObject();
+        if (finishReason != null) {
+            json.name("finishReason").value(finishReason);
+        }
+        json.name("index").value(index);
+        json.name("safetyRatings").beginArray();
+        for (String category : new String[]{"HARM_CATEGORY_SEXUALLY_EXPLICIT", "HARM_CATEGORY_HATE_SPEECH",
+                "HARM_CATEGORY_HARASSMENT", "HARM_CATEGORY_DANGEROUS_CONTENT"}) {
+            json.beginObject().name("category").value(category).name("probability").value("NEGLIGIBLE").endObject();
+        }
+        json.endArray();
+        json.endObject();
+    }
+
+    private static void writeUsageMetadata(JsonWriter json) throws IOException {
+        json.name("usageMetadata").beginObject()
+                .name("promptTokenCount").value(182)
+                .name("candidatesTokenCount").value(512)
+                .name("totalTokenCount").value(694)
+                .name("promptTokensDetails").beginArray()
+                .beginObject().name("modality").value("TEXT").name("tokenCount").value(182).endObject()
+                .endArray()
+                .endObject();
+    }
+
+    private static String largeMarkdown(int bytes) {
+        String[] steps = RECIPE_MARKDOWN.substring(RECIPE_MARKDOWN.indexOf("1. ")).split("\n");
+        StringBuilder sb = new StringBuilder(RECIPE_MARKDOWN).append('\n');
+        int number = steps.length;
+        while (sb.toString().getBytes(StandardCharsets.UTF_8).length < bytes) {
+            String step = steps[number % steps.length];
+            sb.append(++number).append(step.substring(step.indexOf('.'))).append('\n');
+        }
+        return sb.append("\n## ポイント\n卵は2回に分けて入れると、ふんわりと仕上がります。\n").toString();
+    }
+
+    /**
+     * 画面で一部の項目だけを選択した状態（スピナーの値は arrays.xml の項目そのまま）
+     */
+    static RecipeConstraints newConstraints() {
+        RecipeConstraints constraints = new RecipeConstraints();
+        constraints.set(RecipeConstraints.Item.TYPE, "主食の分類: ご飯類", "");
+        constraints.set(RecipeConstraints.Item.DIFFICULTY, "難易度: 初心者 (簡単)", "");
+        constraints.set(RecipeConstraints.Item.GENRE, "ジャンル: 和食", "");
+        constraints.set(RecipeConstraints.Item.TIME, "時間制限: 30分以内 (標準)", "");
+        constraints.set(RecipeConstraints.Item.DIET, "制約: 辛さ控えめ", "");
+        constraints.setPriceRange(300, 800);
+        constraints.setInstructions(INSTRUCTIONS);
+        return constraints;
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.liefantidia2;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * 生成1回ごとに実行される、文字列の組み立て・取り出しのコスト。
+ *
+ * buildPrompt      : RecipePrompt.build（GeminiApiClient がリクエストごとに呼ぶ）
+ * encodeConstraints: 画面の選択からの制約文字列の組み立て（自由指示のトークン数の見積もりを含む）
+ * estimateTokens   : 送信前のプロンプトのトークン数の見積もり
+ * buildSummary     : HistorySummary.build（履歴の保存時に1回、旧形式のドキュメントは同期のたびに呼ぶ）
+ * recipeTitle      : 保存時のタイトル取得（構造化出力の JSON から。旧形式の本文は RecipeMarkdownParserBenchmark）
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PromptBenchmark {
+
+    private final String ingredients = BenchmarkFixtures.INGREDIENTS_WITH_USAGE;
+    private final String constraints = BenchmarkFixtures.ALL_CONSTRAINTS;
+    private final String prompt = BenchmarkFixtures.PROMPT;
+
+    @Benchmark
+    public String buildPrompt() {
+        return RecipePrompt.build(ingredients, constraints);
+    }
+
+    @Benchmark
+    public String encodeConstraints() {
+        return BenchmarkFixtures.newConstraints().encode();
+    }
+
+    @Benchmark
+    public int estimateTokens() {
+        return RecipePrompt.estimateTokens(prompt);
+    }
+
+    @Benchmark
+    public String buildSummary() {
+        return HistorySummary.build(ingredients, constraints);
+    }
+
+    @Benchmark
+    public String recipeTitle() {
+        return Recipe.titleOf(BenchmarkFixtures.RECIPE_JSON);
+    }
+}
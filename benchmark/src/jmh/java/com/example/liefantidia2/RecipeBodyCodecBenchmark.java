@@ -0,0 +1,72 @@
+package com.example.liefantidia2;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Firestore に保存するレシピ本文の圧縮コスト（保存時）と展開コスト（表示時）。
+ *
+ * compress  : RecipeBodyCodec.compress（raw deflate + 事前辞書）
+ * decompress: RecipeBodyCodec.decompress（履歴の本文を表示するたびに実行される）
+ * deflateWithoutDictionary: 比較用。事前辞書を使わない同じレベルの raw deflate
+ *
+ * 圧縮後のサイズは Setup で標準出力に表示する（JMH の結果には含まれない）。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RecipeBodyCodecBenchmark {
+
+    @Param({"json", "markdown"})
+    public String format;
+
+    private String content;
+    private byte[] compressed;
+    private byte[] buffer;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        content = "json".equals(format) ? BenchmarkFixtures.RECIPE_JSON : BenchmarkFixtures.RECIPE_MARKDOWN;
+        compressed = RecipeBodyCodec.compress(content);
+        byte[] raw = content.getBytes(StandardCharsets.UTF_8);
+        buffer = new byte[raw.length * 2];
+        System.out.printf("%n[%s] raw=%d bytes, deflate+dictionary=%d bytes (%.0f%%), deflate=%d bytes (%.0f%%)%n",
+                format, raw.length,
+                compressed.length, 100.0 * compressed.length / raw.length,
+                deflateWithoutDictionary(), 100.0 * deflateWithoutDictionary() / raw.length);
+    }
+
+    @Benchmark
+    public byte[] compress() {
+        return RecipeBodyCodec.compress(content);
+    }
+
+    @Benchmark
+    public String decompress() throws IOException {
+        return RecipeBodyCodec.decompress(compressed, RecipeBodyCodec.FORMAT_DEFLATE_V1);
+    }
+
+    @Benchmark
+    public int deflateWithoutDictionary() {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        try {
+            deflater.setInput(content.getBytes(StandardCharsets.UTF_8));
+            deflater.finish();
+            return deflater.deflate(buffer);
+        } finally {
+            deflater.end();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.liefantidia2;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * 旧形式（Markdown）のレシピ本文の走査コスト。
+ *
+ * parseOutline: RecipeMarkdownParser.parse（タイトル・材料・手順のオフセットのみ。文字列を切り出さない）
+ * titleOf     : Recipe.titleOf（オフセットからタイトルだけを切り出す）
+ * fromMarkdown: Recipe.fromMarkdown（材料・手順の各項目まで切り出して Recipe にする。検索の索引で使用）
+ * regexTitle  : 比較用。以前の HistoryManager.extractTitleFromRecipe（trim + 正規表現 + replaceAll）
+ * splitTitle  : 比較用。以前の MainActivity.extractTitle（本文全体を split("\n")）
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RecipeMarkdownParserBenchmark {
+
+    private static final Pattern LEGACY_TITLE_PATTERN = Pattern.compile("^[#*]?[\\s]*([^\\n]+)", Pattern.MULTILINE);
+
+    @Param({"typical", "20kb"})
+    public String size;
+
+    private String markdown;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        markdown = "typical".equals(size) ? BenchmarkFixtures.RECIPE_MARKDOWN : BenchmarkFixtures.RECIPE_MARKDOWN_20KB;
+    }
+
+    @Benchmark
+    public RecipeMarkdownParser.Outline parseOutline() {
+        return RecipeMarkdownParser.parse(markdown);
+    }
+
+    @Benchmark
+    public String titleOf() {
+        return Recipe.titleOf(markdown);
+    }
+
+    @Benchmark
+    public Recipe fromMarkdown() {
+        return Recipe.fromMarkdown(markdown);
+    }
+
+    @Benchmark
+    public String regexTitle() {
+        // 以前の実装と同じく呼び出しごとに Pattern.compile していたが、ここでは走査のコストだけを比べる
+        Matcher matcher = LEGACY_TITLE_PATTERN.matcher(markdown.trim());
+        if (matcher.find()) {
+            String title = matcher.group(1).trim().replaceAll("^[#*\\s]+", "").trim();
+            return title.length() > 50 ? title.substring(0, 50) + "..." : title;
+        }
+        return Recipe.UNTITLED;
+    }
+
+    @Benchmark
+    public String splitTitle() {
+        String[] lines = markdown.split("\n");
+        String title = lines[0].trim();
+        if (title.startsWith("#")) {
+            title = title.replaceAll("^#+\\s*", "");
+        }
+        return title.length() > 30 ? title.substring(0, 30) + "..." : title;
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.liefantidia2;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.Buffer;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * リクエストJSONの構築〜送信バッファへの書き込みまでのコスト比較。
+ *
+ * legacyJsonObject: 旧 buildJsonBody（JSONObjectツリー → String → RequestBody.create でbyte[]へコピー）
+ * streamingWriter : GeminiRequestBody（固定部分は事前エンコード済み、プロンプトのみエスケープして直接書き込み）
+ *
+ * 1リクエストあたりの確保バイト数は -prof gc の gc.alloc.rate.norm で比較する。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RequestBodyBenchmark {
+
+    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+    private static final byte[] GENERATION_CONFIG = "{\"temperature\":0.9}".getBytes(StandardCharsets.UTF_8);
+
+    private String prompt;
+    private Buffer sink;
+
+    @Setup
+    public void setUp() {
+        prompt = BenchmarkFixtures.PROMPT;
+        // 送信先のソケットバッファの代わり。セグメントは clear() でプールに戻り再利用される
+        sink = new Buffer();
+    }
+
+    @Benchmark
+    public long legacyJsonObject() throws JSONException, IOException {
+        RequestBody body = RequestBody.create(buildLegacyJsonBody(prompt), JSON);
+        body.writeTo(sink);
+        long written = sink.size();
+        sink.clear();
+        return written;
+    }
+
+    @Benchmark
+    public long streamingWriter() throws IOException {
+        RequestBody body = new GeminiRequestBody(prompt, GENERATION_CONFIG);
+        body.writeTo(sink);
+        long written = sink.size();
+        sink.clear();
+        return written;
+    }
+
+    /**
+     * 比較用: 置き換え前の GeminiApiClient.buildJsonBody と同一の処理
+     */
+    private static String buildLegacyJsonBody(String prompt) throws JSONException {
+        JSONObject textPart = new JSONObject();
+        textPart.put("text", prompt);
+
+        JSONArray parts = new JSONArray();
+        parts.put(textPart);
+
+        JSONObject contentObject = new JSONObject();
+        contentObject.put("role", "user");
+        contentObject.put("parts", parts);
+
+        JSONArray contents = new JSONArray();
+        contents.put(contentObject);
+
+        JSONObject generationConfig = new JSONObject();
+        generationConfig.put("temperature", 0.9);
+
+        JSONObject json = new JSONObject();
+        json.put("contents", contents);
+        json.put("generationConfig", generationConfig);
+
+        return json.toString();
+    }
+}
@@ -0,0 +1,48 @@
+package com.example.liefantidia2;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Gemini のレスポンスから、保存用のレシピ JSON を取り出すまでのコスト。
+ *
+ * GeminiApiClient と同じく GeminiResponseParser で読み取り、Recipe.toCompactJson で検証・正規化する。
+ *   single  : 一括生成（候補1件）
+ *   variants: candidateCount = 3
+ *   stream  : SSE の各チャンクを解析してテキストを連結する（チャンク数は約20）
+ * 通信は含まないため、レスポンスは String から StringReader で読む。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ResponseParseBenchmark {
+
+    @Param({"single", "variants", "stream"})
+    public String response;
+
+    @Benchmark
+    public List<String> parseRecipes() throws IOException {
+        if ("stream".equals(response)) {
+            StringBuilder assembled = new StringBuilder();
+            for (String chunk : BenchmarkFixtures.GEMINI_STREAM_CHUNKS) {
+                assembled.append(GeminiResponseParser.parse(new StringReader(chunk)).text);
+            }
+            return Recipe.toCompactJson(Collections.singletonList(assembled.toString()));
+        }
+        String body = "single".equals(response)
+                ? BenchmarkFixtures.GEMINI_RESPONSE : BenchmarkFixtures.GEMINI_RESPONSE_VARIANTS;
+        GeminiResponseParser.GeminiResponse parsed = GeminiResponseParser.parse(new StringReader(body));
+        return Recipe.toCompactJson(parsed.getCandidateTexts());
+    }
+}
@@ -0,0 +1,37 @@
+package com.example.liefantidia2;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * 履歴の全文検索の索引作成（保存・同期のたびに1件ずつ）と、検索語の分割のコスト。
+ *
+ * indexRecipe: Recipe.toSearchText + BigramTokenizer.countTokens（HistoryDatabase.reindex の本文部分）
+ * queryTokens: 検索欄の入力1回分（デバウンス後に実行される）
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SearchIndexBenchmark {
+
+    private final String content = BenchmarkFixtures.RECIPE_JSON;
+    private final String query = "鶏もも肉 半熟";
+
+    @Benchmark
+    public Map<String, Integer> indexRecipe() {
+        return BigramTokenizer.countTokens(Recipe.toSearchText(content));
+    }
+
+    @Benchmark
+    public Set<String> queryTokens() {
+        return BigramTokenizer.queryTokens(query);
+    }
+}